@@ -25,7 +25,6 @@ import static io.takamaka.code.lang.Takamaka.require;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
 import java.util.function.Supplier;
 
 import io.takamaka.code.lang.Contract;
@@ -34,9 +33,9 @@ import io.takamaka.code.lang.FromContract;
 import io.takamaka.code.lang.Payable;
 import io.takamaka.code.lang.PayableContract;
 import io.takamaka.code.lang.Storage;
+import io.takamaka.code.lang.View;
 import io.takamaka.code.util.Bytes32Snapshot;
-import io.takamaka.code.util.StorageLinkedList;
-import io.takamaka.code.util.StorageList;
+import io.takamaka.code.util.StorageListView;
 import io.takamaka.code.util.StorageMap;
 import io.takamaka.code.util.StorageTreeMap;
 
@@ -58,37 +57,15 @@ public class BlindAuction extends Contract {
    */
   private static class Bid extends Storage {
 
-    /**
-     * The hash that will be regenerated and compared at reveal time.
-     */
-    private final Bytes32Snapshot hash;
-
     /**
       * The value of the bid. Its real value might be lower and known
       * at real time only.
       */
     private final BigInteger deposit;
 
-    private Bid(Bytes32Snapshot hash, BigInteger deposit) {
-      this.hash = hash;
+    private Bid(BigInteger deposit) {
       this.deposit = deposit;
     }
-
-    /**
-     * Recomputes the hash of a bid at reveal time and compares it
-     * against the hash provided at bidding time. If they match,
-     * we can reasonably trust the bid.
-     * 
-     * @param revealed the revealed bid
-     * @param digest the hasher
-     * @return true if and only if the hashes match
-     */
-    private boolean matches(RevealedBid revealed, MessageDigest digest) {
-      digest.update(revealed.value.toByteArray());
-      digest.update(revealed.fake ? (byte) 0 : (byte) 1);
-      digest.update(revealed.salt.toArray());
-      return Arrays.equals(hash.toArray(), digest.digest());
-    }
   }
 
   /**
@@ -111,6 +88,21 @@ public class BlindAuction extends Contract {
       this.fake = fake;
       this.salt = salt;
     }
+
+    /**
+     * Recomputes the hash of this bid at reveal time and yields the key
+     * of the bid placed with that hash at bidding time, if any.
+     * If such a bid exists, we can reasonably trust this revealed bid.
+     * 
+     * @param digest the hasher
+     * @return the key of the bid with the same hash
+     */
+    private String keyOf(MessageDigest digest) {
+      digest.update(value.toByteArray());
+      digest.update(fake ? (byte) 0 : (byte) 1);
+      digest.update(salt.toArray());
+      return BlindAuction.keyOf(digest.digest());
+    }
   }
 
   /**
@@ -119,9 +111,11 @@ public class BlindAuction extends Contract {
   private final PayableContract beneficiary;
 
   /**
-   * The bids for each bidder. A bidder might place more bids.
+   * The bids for each bidder. A bidder might place more bids,
+   * that are indexed by the key of their hash, hence they can
+   * be revealed in any order.
    */
-  private final StorageMap<PayableContract, StorageList<Bid>> bids = new StorageTreeMap<>();
+  private final StorageMap<PayableContract, StorageMap<String, Bid>> bids = new StorageTreeMap<>();
 
   /**
    * The time when the bidding time ends.
@@ -171,8 +165,20 @@ public class BlindAuction extends Contract {
       (BigInteger amount, Bytes32Snapshot hash) {
 
     onlyBefore(biddingEnd);
-    bids.computeIfAbsent((PayableContract) caller(), (Supplier<StorageList<Bid>>) StorageLinkedList::new)
-      .add(new Bid(hash, amount));
+    require(hash != null, "The hash cannot be null");
+    addBid((PayableContract) caller(), amount, keyOf(hash.toArray()));
+  }
+
+  /**
+   * Places a blinded bid whose hash is given as four long words,
+   * in big-endian order. This is equivalent to the other bid method, but
+   * the bidder needs not create the hash in a previous transaction.
+   */
+  public @Payable @FromContract(PayableContract.class) void bid
+      (BigInteger amount, long hash0, long hash1, long hash2, long hash3) {
+
+    onlyBefore(biddingEnd);
+    addBid((PayableContract) caller(), amount, keyOf(hash0, hash1, hash2, hash3));
   }
 
   /**
@@ -185,19 +191,130 @@ public class BlindAuction extends Contract {
   public @FromContract(PayableContract.class) void reveal
       (RevealedBid revealed) throws NoSuchAlgorithmException {
 
+    revealFor((PayableContract) caller(), revealed);
+  }
+
+  /**
+   * Reveals a bid of the caller, whose salt is given as four long words,
+   * in big-endian order. This is equivalent to the other reveal method, but
+   * the revealed bid gets built here, hence the bidder needs not create it
+   * in previous transactions.
+   * 
+   * @param value the value of the bid
+   * @param fake true if and only if the bid was fake
+   * @param salt0 the first word of the salt
+   * @param salt1 the second word of the salt
+   * @param salt2 the third word of the salt
+   * @param salt3 the fourth word of the salt
+   * @throws NoSuchAlgorithmException if the hashing algorithm is not available
+   */
+  public @FromContract(PayableContract.class) void reveal
+      (BigInteger value, boolean fake, long salt0, long salt1, long salt2, long salt3)
+      throws NoSuchAlgorithmException {
+
+    require(value != null, "The value of the revealed bid cannot be null");
+    revealFor((PayableContract) caller(), new RevealedBid(value, fake, toBytes32(salt0, salt1, salt2, salt3)));
+  }
+
+  /**
+   * Reveals many bids of the caller at once. This is equivalent to revealing
+   * them one by one, but the caller receives a single refund for all of them.
+   * Revealed bids that match no bid of the caller are ignored.
+   * Since storage lists are not exported, the caller must
+   * be a contract that builds the list of revealed bids in its own code.
+   * 
+   * @param revealed the revealed bids
+   * @throws NoSuchAlgorithmException if the hashing algorithm is not available
+   */
+  public @FromContract(PayableContract.class) void revealAll
+      (StorageListView<RevealedBid> revealed) throws NoSuchAlgorithmException {
+
+    require(revealed != null, "The revealed bids cannot be null");
+    var bids = new RevealedBid[revealed.size()];
+    int pos = 0;
+    for (RevealedBid bid: revealed)
+      bids[pos++] = bid;
+
+    revealAllFor((PayableContract) caller(), bids);
+  }
+
+  /**
+   * Reveals many bids of the caller at once, written in a string, hence also
+   * accounts can call this method, in a single transaction. The bids are separated
+   * by semicolons. Each bid consists of its value, in decimal, then true or false,
+   * if the bid was fake or not, and its salt, as 64 hexadecimal digits, separated
+   * by commas, such as {@code 1000,false,00ff...;2000,true,1a2b...}.
+   * This is equivalent to the other revealAll method.
+   * 
+   * @param revealed the revealed bids
+   * @throws NoSuchAlgorithmException if the hashing algorithm is not available
+   */
+  public @FromContract(PayableContract.class) void revealAll(String revealed) throws NoSuchAlgorithmException {
+    require(revealed != null, "The revealed bids cannot be null");
+    String[] descriptions = revealed.split(";");
+    var bids = new RevealedBid[descriptions.length];
+    for (int pos = 0; pos < bids.length; pos++)
+      bids[pos] = parseRevealedBid(descriptions[pos]);
+
+    revealAllFor((PayableContract) caller(), bids);
+  }
+
+  /**
+   * Reveals many bids of the given bidder, with a single refund.
+   * 
+   * @param bidder the bidder
+   * @param revealed the revealed bids
+   * @throws NoSuchAlgorithmException if the hashing algorithm is not available
+   */
+  private void revealAllFor(PayableContract bidder, RevealedBid[] revealed) throws NoSuchAlgorithmException {
     onlyAfter(biddingEnd);
     onlyBefore(revealEnd);
-    var bidder = (PayableContract) caller();
-    StorageList<Bid> bids = this.bids.get(bidder);
+    StorageMap<String, Bid> bids = this.bids.get(bidder);
+    require(bids != null && bids.size() > 0, "No bids to reveal");
+
+    // a single hasher is used for all revealed bids
+    var digest = MessageDigest.getInstance("SHA-256");
+    var refund = BigInteger.ZERO;
+    int matched = 0;
+    for (RevealedBid bid: revealed) {
+      require(bid != null, () -> "The revealed bids cannot contain null");
+      String key = bid.keyOf(digest);
+      Bid placed = bids.get(key);
+      if (placed != null) {
+        bids.remove(key);
+        refund = refund.add(refundFor(bidder, placed, bid));
+        matched++;
+      }
+    }
+
+    bidder.receive(refund);
+    event(new BidsRevealed(bidder, matched, refund));
+  }
+
+  /**
+   * Reveals a bid of the given bidder.
+   * 
+   * @param bidder the bidder
+   * @param revealed the revealed bid
+   * @throws NoSuchAlgorithmException if the hashing algorithm is not available
+   */
+  private void revealFor(PayableContract bidder, RevealedBid revealed) throws NoSuchAlgorithmException {
+    onlyAfter(biddingEnd);
+    onlyBefore(revealEnd);
+    StorageMap<String, Bid> bids = this.bids.get(bidder);
     require(bids != null && bids.size() > 0, "No bids to reveal");
     require(revealed != null, () -> "The revealed bid cannot be null");
 
     // any other hashing algorithm will do, as long as
     // both bidder and auction contract use the same
     var digest = MessageDigest.getInstance("SHA-256");
-    // by removing the head of the list, it makes it impossible
-    // for the caller to re-claim the same deposits
-    bidder.receive(refundFor(bidder, bids.removeFirst(), revealed, digest));
+    String key = revealed.keyOf(digest);
+    Bid bid = bids.get(key);
+    require(bid != null, "No bid matches the revealed one");
+    // by removing the bid, it makes it impossible
+    // for the caller to re-claim the same deposit
+    bids.remove(key);
+    bidder.receive(refundFor(bidder, bid, revealed));
   }
 
   /**
@@ -218,22 +335,49 @@ public class BlindAuction extends Contract {
     return winner;
   }
 
+  /**
+   * Yields the time when the bidding time ends.
+   * 
+   * @return the time, in milliseconds since the epoch, as seen by the node
+   */
+  public @View long getBiddingEnd() {
+    return biddingEnd;
+  }
+
+  /**
+   * Yields the time when the reveal time ends.
+   * 
+   * @return the time, in milliseconds since the epoch, as seen by the node
+   */
+  public @View long getRevealEnd() {
+    return revealEnd;
+  }
+
+  /**
+   * Takes note of a bid, that will be revealed later.
+   * 
+   * @param bidder the bidder that placed the bid
+   * @param amount the deposit paid for the bid
+   * @param key the key of the hash of the bid
+   */
+  private void addBid(PayableContract bidder, BigInteger amount, String key) {
+    StorageMap<String, Bid> bidsOfBidder = bids.computeIfAbsent
+      (bidder, (Supplier<StorageMap<String, Bid>>) StorageTreeMap::new);
+    // two bids with the same hash could not be told apart at reveal time
+    require(!bidsOfBidder.containsKey(key), "A bid with the same hash has already been placed");
+    bidsOfBidder.put(key, new Bid(amount));
+  }
+
   /**
    * Checks how much of the deposit should be refunded for a given bid.
    * 
    * @param bidder the bidder that placed the bid
    * @param bid the bid, as was placed at bidding time
-   * @param revealed the bid, as was revealed later
-   * @param digest the hashing algorithm
+   * @param revealed the bid, as was revealed later, with the same hash
    * @return the amount to refund
    */
-  private BigInteger refundFor(PayableContract bidder, Bid bid,
-      RevealedBid revealed, MessageDigest digest) {
-
-    if (!bid.matches(revealed, digest))
-      // the bid was not actually revealed: no refund
-      return BigInteger.ZERO;
-    else if (!revealed.fake && bid.deposit.compareTo(revealed.value) >= 0
+  private BigInteger refundFor(PayableContract bidder, Bid bid, RevealedBid revealed) {
+    if (!revealed.fake && bid.deposit.compareTo(revealed.value) >= 0
         && placeBid(bidder, revealed.value))
       // the bid was correctly revealed and is the best up to now:
       // only the difference between promised and provided is refunded;
@@ -270,6 +414,58 @@ public class BlindAuction extends Contract {
     return true;
   }
 
+  /**
+   * Yields the key used to index a bid, given its 32 bytes hash.
+   */
+  private static String keyOf(byte[] hash) {
+    long[] words = new long[4];
+    for (int pos = 0; pos < hash.length; pos++)
+      words[pos / 8] = (words[pos / 8] << 8) | (hash[pos] & 0xffL);
+
+    return keyOf(words[0], words[1], words[2], words[3]);
+  }
+
+  /**
+   * Yields the key used to index a bid, given its hash
+   * as four long words, in big-endian order.
+   */
+  private static String keyOf(long word0, long word1, long word2, long word3) {
+    return new StringBuilder().append(word0).append(':').append(word1).append(':')
+      .append(word2).append(':').append(word3).toString();
+  }
+
+  /**
+   * Yields the revealed bid written as its value, fake flag and salt, separated by commas.
+   */
+  private static RevealedBid parseRevealedBid(String description) {
+    String[] fields = description.split(",");
+    require(fields.length == 3, () -> "Illegal revealed bid: " + description);
+    require("true".equals(fields[1]) || "false".equals(fields[1]), () -> "Illegal fake flag: " + fields[1]);
+    require(fields[2].length() == 64, () -> "The salt must be 64 hexadecimal digits: " + fields[2]);
+
+    var salt = new BigInteger(fields[2], 16);
+    require(salt.signum() >= 0, () -> "The salt must be 64 hexadecimal digits: " + fields[2]);
+    // the salt might need a leading sign byte or fewer than 32 bytes
+    byte[] digits = salt.toByteArray();
+    var bytes = new byte[32];
+    for (int pos = 1; pos <= digits.length && pos <= bytes.length; pos++)
+      bytes[bytes.length - pos] = digits[digits.length - pos];
+
+    return new RevealedBid(new BigInteger(fields[0]), "true".equals(fields[1]), new Bytes32Snapshot(bytes));
+  }
+
+  /**
+   * Yields the 32 bytes of four long words, in big-endian order.
+   */
+  private static Bytes32Snapshot toBytes32(long word0, long word1, long word2, long word3) {
+    long[] words = { word0, word1, word2, word3 };
+    var bytes = new byte[32];
+    for (int pos = 0; pos < bytes.length; pos++)
+      bytes[pos] = (byte) (words[pos / 8] >>> (56 - 8 * (pos % 8)));
+
+    return new Bytes32Snapshot(bytes);
+  }
+
   private static void onlyBefore(long when) {
     require(now() < when, "Too late");
   }
@@ -1,8 +1,11 @@
 module runs {
   requires io.hotmoka.helpers;
+  requires io.hotmoka.closeables.api;
   requires io.hotmoka.node.remote;
   requires io.hotmoka.node.disk;
   requires io.hotmoka.node.tendermint;
   requires io.hotmoka.node.service;
   requires io.takamaka.code.constants;
+  requires java.logging;
+  requires java.xml;
 }
\ No newline at end of file
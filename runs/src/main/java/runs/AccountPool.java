@@ -0,0 +1,344 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.hotmoka.crypto.api.SignatureAlgorithm;
+import io.hotmoka.crypto.api.Signer;
+import io.hotmoka.node.MethodSignatures;
+import io.hotmoka.node.StorageValues;
+import io.hotmoka.node.TransactionRequests;
+import io.hotmoka.node.api.Node;
+import io.hotmoka.node.api.requests.SignedTransactionRequest;
+import io.hotmoka.node.api.transactions.TransactionReference;
+import io.hotmoka.node.api.values.StorageReference;
+
+/**
+ * A pool of accounts, funded by a faucet account, that get leased to
+ * the threads that send transactions. A leased account is used by its
+ * lessee only, hence each lessee has its own sequence of nonces and
+ * the throughput grows with the number of accounts. The balance of the
+ * accounts is tracked locally, from the costs declared by the lessees,
+ * and accounts whose balance gets low are refilled in the background.
+ * The keys of the accounts can be kept in a {@link KeyFile}, so that the
+ * same accounts are reused across runs. Missing accounts are created in
+ * bulk, by an {@link AccountProvisioner}.
+ */
+public class AccountPool implements AutoCloseable {
+  private final static Logger LOGGER = Logger.getLogger(AccountPool.class.getName());
+  private final static BigInteger _50_000 = BigInteger.valueOf(50_000);
+  private final static BigInteger _100_000 = BigInteger.valueOf(100_000);
+
+  private final Node node;
+  private final StorageReference faucet;
+  private final Signer<SignedTransactionRequest<?>> faucetSigner;
+  private final BigInteger funds;
+
+  /**
+   * The balance under which an account gets refilled.
+   */
+  private final BigInteger threshold;
+
+  private final String chainId;
+  private final TransactionReference takamakaCode;
+  private final NonceManager nonces;
+  private final GasPriceCache gasPrices;
+  private final List<Member> members = new ArrayList<>();
+  private final BlockingQueue<Member> idle;
+  private final BlockingQueue<Member> toRefill = new LinkedBlockingQueue<>();
+  private final Thread refiller;
+  private final AtomicLong leases = new AtomicLong();
+  private final AtomicLong refills = new AtomicLong();
+
+  /**
+   * An account of the pool.
+   */
+  private static class Member {
+    private final StorageReference account;
+    private final Signer<SignedTransactionRequest<?>> signer;
+
+    /**
+     * The balance of the account, as known locally.
+     */
+    private BigInteger balance;
+
+    /**
+     * True if the account is waiting to be refilled.
+     */
+    private boolean refilling;
+
+    private Member(StorageReference account, Signer<SignedTransactionRequest<?>> signer, BigInteger balance) {
+      this.account = account;
+      this.signer = signer;
+      this.balance = balance;
+    }
+  }
+
+  /**
+   * The exclusive use of an account of the pool, until it is closed.
+   */
+  public class Lease implements AutoCloseable {
+    private final Member member;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private Lease(Member member) {
+      this.member = member;
+    }
+
+    public StorageReference getAccount() {
+      return member.account;
+    }
+
+    public Signer<SignedTransactionRequest<?>> getSigner() {
+      return member.signer;
+    }
+
+    /**
+     * Takes note that the account has paid the given amount. This is typically
+     * the gas limit times the gas price of a transaction, which bounds its cost.
+     * This can be called also after the lease has been closed, for a transaction
+     * that was posted while the account was leased.
+     *
+     * @param amount the amount
+     */
+    public void charge(BigInteger amount) {
+      synchronized (member) {
+        member.balance = member.balance.subtract(amount);
+        if (member.refilling || member.balance.compareTo(threshold) >= 0)
+          return;
+
+        member.refilling = true;
+      }
+
+      toRefill.add(member);
+    }
+
+    /**
+     * Takes note that the account has paid for a transaction with the given gas limit and price.
+     *
+     * @param gasLimit the gas limit of the transaction
+     * @param gasPrice the gas price of the transaction
+     */
+    public void charge(BigInteger gasLimit, BigInteger gasPrice) {
+      charge(gasLimit.multiply(gasPrice));
+    }
+
+    /**
+     * Yields the balance of the account, as known locally.
+     *
+     * @return the balance
+     */
+    public BigInteger getBalance() {
+      synchronized (member) {
+        return member.balance;
+      }
+    }
+
+    /**
+     * Gives the account back to the pool.
+     */
+    @Override
+    public void close() {
+      if (closed.compareAndSet(false, true))
+        idle.add(member);
+    }
+  }
+
+  /**
+   * Creates a pool of accounts. The accounts in the given file are reused and
+   * further accounts are created, if needed, and added to the file.
+   *
+   * @param node the node
+   * @param faucet the account that pays for the creation and refill of the accounts
+   * @param faucetKey the private key of the faucet
+   * @param size the number of accounts in the pool
+   * @param funds the initial balance of the accounts; they are refilled up to this amount
+   *              when their balance falls below a quarter of it
+   * @param file the file where the keys of the accounts are kept, if any
+   */
+  public AccountPool(Node node, StorageReference faucet, PrivateKey faucetKey, int size, BigInteger funds, Optional<Path> file) throws Exception {
+    if (size <= 0)
+      throw new IllegalArgumentException("The pool must contain at least an account");
+
+    this.node = node;
+    this.faucet = faucet;
+    this.funds = funds;
+    this.threshold = funds.divide(BigInteger.valueOf(4));
+    this.chainId = node.getConfig().getChainId();
+    this.takamakaCode = node.getTakamakaCode();
+    this.nonces = new NonceManager(node);
+    this.gasPrices = new GasPriceCache(node, 10_000, 0);
+    this.idle = new ArrayBlockingQueue<>(size);
+    var signature = node.getConfig().getSignatureForRequests();
+    this.faucetSigner = signature.getSigner(faucetKey, SignedTransactionRequest<?>::toByteArrayWithoutSignature);
+
+    Optional<KeyFile> keys = file.isPresent() && Files.exists(file.get()) ? Optional.of(new KeyFile(file.get())) : Optional.empty();
+    int reused = Math.min(size, keys.map(KeyFile::size).orElse(0));
+    var accounts = new ArrayList<StorageReference>();
+    var privateKeys = new ArrayList<PrivateKey>();
+
+    // the balances of the reused accounts are fetched in parallel
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      var balances = new ArrayList<Future<BigInteger>>();
+      for (int pos = 0; pos < reused; pos++) {
+        StorageReference account = keys.get().account(pos);
+        accounts.add(account);
+        privateKeys.add(keys.get().privateKey(pos));
+        balances.add(executor.submit(() -> balanceOf(account)));
+      }
+
+      for (int pos = 0; pos < reused; pos++)
+        add(accounts.get(pos), privateKeys.get(pos), signature, Futures.get(balances.get(pos)));
+    }
+
+    int missing = size - reused;
+    if (missing > 0) {
+      // the missing accounts are created in bulk
+      for (var created: new AccountProvisioner(node, faucet, faucetKey, nonces).provision(missing, funds)) {
+        add(created.account(), created.key(), signature, funds);
+        accounts.add(created.account());
+        privateKeys.add(created.key());
+      }
+
+      if (file.isPresent())
+        KeyFile.write(file.get(), signature, accounts, privateKeys);
+    }
+
+    // accounts reused with a low balance are refilled at once
+    for (var member: members)
+      if (member.balance.compareTo(threshold) < 0) {
+        member.refilling = true;
+        toRefill.add(member);
+      }
+
+    this.refiller = Thread.ofVirtual().name("account pool refiller").start(this::refill);
+  }
+
+  /**
+   * Leases an account of the pool, waiting until one is available.
+   *
+   * @return the lease, that must be closed to give the account back
+   */
+  public Lease lease() throws InterruptedException {
+    leases.incrementAndGet();
+    return new Lease(idle.take());
+  }
+
+  /**
+   * Yields the manager of the nonces of the accounts of the pool.
+   *
+   * @return the manager of the nonces
+   */
+  public NonceManager getNonces() {
+    return nonces;
+  }
+
+  /**
+   * Yields the number of accounts in the pool.
+   *
+   * @return the number of accounts
+   */
+  public int size() {
+    return members.size();
+  }
+
+  @Override
+  public void close() {
+    refiller.interrupt();
+    gasPrices.close();
+  }
+
+  @Override
+  public String toString() {
+    return "account pool: " + members.size() + " accounts, " + idle.size() + " idle, "
+      + leases + " leases, " + refills + " refills, " + toRefill.size() + " waiting for a refill";
+  }
+
+  private void add(StorageReference account, PrivateKey key, SignatureAlgorithm signature, BigInteger balance) {
+    var member = new Member(account, signature.getSigner(key, SignedTransactionRequest<?>::toByteArrayWithoutSignature), balance);
+    members.add(member);
+    idle.add(member);
+  }
+
+  private BigInteger balanceOf(StorageReference account) throws Exception {
+    return node.runInstanceMethodCallTransaction(TransactionRequests.instanceViewMethodCall
+      (account, _50_000, takamakaCode, MethodSignatures.BALANCE, account)).get()
+      .asBigInteger(__ -> new ClassCastException());
+  }
+
+  /**
+   * Refills the accounts whose balance went low, one at a time, until interrupted.
+   * Refills do not use the nonces of the accounts, hence they can be leased meanwhile.
+   */
+  private void refill() {
+    try {
+      while (true) {
+        Member member = toRefill.take();
+        BigInteger amount;
+
+        synchronized (member) {
+          amount = funds.subtract(member.balance);
+        }
+
+        try {
+          nonces.send(faucet, nonce -> TransactionRequests.instanceMethodCall
+            (faucetSigner, faucet, nonce, chainId, _100_000, gasPrices.getSafeGasPrice(),
+            takamakaCode, MethodSignatures.RECEIVE_BIG_INTEGER, member.account, StorageValues.bigIntegerOf(amount)),
+            node::addInstanceMethodCallTransaction);
+
+          refills.incrementAndGet();
+
+          synchronized (member) {
+            member.balance = member.balance.add(amount);
+          }
+        }
+        catch (InterruptedException e) {
+          throw e;
+        }
+        catch (Exception e) {
+          // the account will be queued again at its next charge
+          LOGGER.log(Level.WARNING, "cannot refill " + member.account, e);
+        }
+
+        synchronized (member) {
+          member.refilling = false;
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      // the pool has been closed
+    }
+  }
+}
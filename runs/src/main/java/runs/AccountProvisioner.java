@@ -0,0 +1,271 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import static io.hotmoka.node.StorageTypes.BIG_INTEGER;
+import static io.hotmoka.node.StorageTypes.INT;
+import static io.hotmoka.node.StorageTypes.STRING;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.hotmoka.crypto.SignatureAlgorithms;
+import io.hotmoka.crypto.api.SignatureAlgorithm;
+import io.hotmoka.crypto.api.Signer;
+import io.hotmoka.node.ConstructorSignatures;
+import io.hotmoka.node.MethodSignatures;
+import io.hotmoka.node.StorageTypes;
+import io.hotmoka.node.StorageValues;
+import io.hotmoka.node.TransactionRequests;
+import io.hotmoka.node.api.Node;
+import io.hotmoka.node.api.requests.SignedTransactionRequest;
+import io.hotmoka.node.api.signatures.ConstructorSignature;
+import io.hotmoka.node.api.signatures.NonVoidMethodSignature;
+import io.hotmoka.node.api.transactions.TransactionReference;
+import io.hotmoka.node.api.values.StorageReference;
+
+/**
+ * A creator of many accounts at once. The key pairs of the accounts are
+ * generated in parallel, on all cores, and the accounts are created in
+ * batches, each by a single transaction that creates a container of
+ * accounts, instead of a transaction per account. The batches are posted
+ * together, up to the window of the payer.
+ */
+public class AccountProvisioner {
+  public final static int BATCH_SIZE = 500; // accounts created by each transaction
+  public final static int WINDOW = 8; // maximal number of in-flight batches
+  public final static int MAX_VIEWS = 256; // maximal number of concurrent view calls
+
+  private final static BigInteger _50_000 = BigInteger.valueOf(50_000);
+  private final static BigInteger _100_000 = BigInteger.valueOf(100_000);
+  private final static BigInteger _200_000 = BigInteger.valueOf(200_000);
+
+  private final static ConstructorSignature CONSTRUCTOR_ACCOUNTS
+    = ConstructorSignatures.of(StorageTypes.classNamed("io.takamaka.code.lang.ExternallyOwnedAccounts"), BIG_INTEGER, STRING, STRING);
+
+  private final static NonVoidMethodSignature GET
+    = MethodSignatures.ofNonVoid(StorageTypes.ACCOUNTS, "get", StorageTypes.EOA, INT);
+
+  private final Node node;
+  private final StorageReference payer;
+  private final Signer<SignedTransactionRequest<?>> signer;
+  private final SignatureAlgorithm signature;
+  private final NonceManager nonces;
+  private final String chainId;
+  private final TransactionReference takamakaCode;
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong accounts = new AtomicLong();
+  private final AtomicLong keyGenerationTime = new AtomicLong();
+  private final AtomicLong creationTime = new AtomicLong();
+
+  /**
+   * An account that has been created, with its private key.
+   */
+  public record Provisioned(StorageReference account, PrivateKey key) {}
+
+  /**
+   * Creates a creator of accounts in the given node.
+   *
+   * @param node the node
+   * @param payer the account that pays for the creation of the accounts and funds them
+   * @param payerKey the private key of the payer
+   * @param nonces the manager of the nonces of the payer
+   */
+  public AccountProvisioner(Node node, StorageReference payer, PrivateKey payerKey, NonceManager nonces) throws Exception {
+    this.node = node;
+    this.payer = payer;
+    this.nonces = nonces;
+    this.signature = node.getConfig().getSignatureForRequests();
+    this.signer = signature.getSigner(payerKey, SignedTransactionRequest<?>::toByteArrayWithoutSignature);
+    this.chainId = node.getConfig().getChainId();
+    this.takamakaCode = node.getTakamakaCode();
+  }
+
+  /**
+   * Yields the signature algorithm of the created accounts.
+   *
+   * @return the signature algorithm
+   */
+  public SignatureAlgorithm getSignature() {
+    return signature;
+  }
+
+  /**
+   * Creates the given number of accounts, all with the same balance.
+   *
+   * @param count the number of accounts
+   * @param funds the initial balance of each account
+   * @return the created accounts, with their private key
+   */
+  public List<Provisioned> provision(int count, BigInteger funds) throws Exception {
+    if (count < 0)
+      throw new IllegalArgumentException("The number of accounts cannot be negative");
+
+    long start = System.currentTimeMillis();
+
+    // key generation is CPU bound, hence it runs on a thread per core
+    var generators = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    var generated = new ArrayList<List<KeyPair>>();
+
+    try {
+      var keys = new ArrayList<Future<List<KeyPair>>>();
+      for (int from = 0; from < count; from += BATCH_SIZE) {
+        int size = Math.min(BATCH_SIZE, count - from);
+        keys.add(generators.submit(() -> keyPairs(size)));
+      }
+
+      for (var batch: keys)
+        generated.add(Futures.get(batch));
+    }
+    finally {
+      generators.shutdownNow();
+    }
+
+    keyGenerationTime.addAndGet(System.currentTimeMillis() - start);
+    start = System.currentTimeMillis();
+    var result = create(generated, funds);
+    creationTime.addAndGet(System.currentTimeMillis() - start);
+
+    return result;
+  }
+
+  /**
+   * Yields an upper bound to what the payer spends for creating the given number
+   * of accounts, all with the same balance: the balances of the accounts and
+   * the gas limit of each batch, at the given gas price.
+   *
+   * @param count the number of accounts
+   * @param funds the initial balance of each account
+   * @param gasPrice the gas price of the transactions that create the accounts
+   * @return the upper bound
+   */
+  public static BigInteger costOf(int count, BigInteger funds, BigInteger gasPrice) {
+    BigInteger cost = funds.multiply(BigInteger.valueOf(count));
+    for (int from = 0; from < count; from += BATCH_SIZE)
+      cost = cost.add(gasLimitFor(Math.min(BATCH_SIZE, count - from)).multiply(gasPrice));
+
+    return cost;
+  }
+
+  @Override
+  public String toString() {
+    return "account provisioner: " + accounts + " accounts in " + batches + " batches, "
+      + keyGenerationTime + "ms of key generation, " + creationTime + "ms of creation";
+  }
+
+  /**
+   * Generates the given number of key pairs. Each call uses its own instance of the
+   * signature algorithm, since generators need not be thread-safe.
+   */
+  private List<KeyPair> keyPairs(int size) throws Exception {
+    SignatureAlgorithm algorithm = SignatureAlgorithms.of(signature.getName());
+    var result = new ArrayList<KeyPair>(size);
+    for (int pos = 0; pos < size; pos++)
+      result.add(algorithm.getKeyPair());
+
+    return result;
+  }
+
+  private List<Provisioned> create(List<List<KeyPair>> batches, BigInteger funds) throws Exception {
+    try (var submitter = new AsyncSubmitter(node, nonces, WINDOW);
+         var gasPrices = new GasPriceCache(node, 10_000, 0)) {
+
+      var containers = new ArrayList<CompletableFuture<StorageReference>>();
+      for (var batch: batches)
+        containers.add(post(submitter, batch, funds, gasPrices.getSafeGasPrice()));
+
+      // the accounts are read from their containers with many concurrent view calls
+      var views = new Semaphore(MAX_VIEWS);
+      var accounts = new ArrayList<Future<StorageReference>>();
+      try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+        for (int pos = 0; pos < batches.size(); pos++) {
+          StorageReference container = Futures.get(containers.get(pos));
+          for (int index = 0; index < batches.get(pos).size(); index++) {
+            int i = index;
+            accounts.add(executor.submit(() -> {
+              views.acquire();
+
+              try {
+                return accountAt(container, i);
+              }
+              finally {
+                views.release();
+              }
+            }));
+          }
+        }
+
+        var result = new ArrayList<Provisioned>();
+        var it = accounts.iterator();
+        for (var batch: batches)
+          for (var keyPair: batch)
+            result.add(new Provisioned(Futures.get(it.next()), keyPair.getPrivate()));
+
+        return result;
+      }
+    }
+  }
+
+  /**
+   * Posts the creation of a container of accounts, one for each of the given key pairs.
+   */
+  private CompletableFuture<StorageReference> post(AsyncSubmitter submitter, List<KeyPair> batch, BigInteger funds, BigInteger gasPrice) throws Exception {
+    var balances = new StringBuilder();
+    var publicKeys = new StringBuilder();
+    for (var keyPair: batch) {
+      balances.append(funds).append(' ');
+      publicKeys.append(Base64.getEncoder().encodeToString(signature.encodingOf(keyPair.getPublic()))).append(' ');
+    }
+
+    BigInteger total = funds.multiply(BigInteger.valueOf(batch.size()));
+    BigInteger gasLimit = gasLimitFor(batch.size());
+
+    return submitter.constructorCall(payer, nonce -> TransactionRequests.constructorCall
+      (signer, payer, nonce, chainId, gasLimit, gasPrice, takamakaCode, CONSTRUCTOR_ACCOUNTS,
+      StorageValues.bigIntegerOf(total), StorageValues.stringOf(balances.toString().trim()),
+      StorageValues.stringOf(publicKeys.toString().trim())))
+      .thenApply(container -> {
+        batches.incrementAndGet();
+        accounts.addAndGet(batch.size());
+        return container;
+      });
+  }
+
+  /**
+   * Yields the gas limit of the creation of a container of the given number of accounts.
+   */
+  private static BigInteger gasLimitFor(int size) {
+    return _100_000.add(_200_000.multiply(BigInteger.valueOf(size)));
+  }
+
+  private StorageReference accountAt(StorageReference container, int index) throws Exception {
+    return node.runInstanceMethodCallTransaction(TransactionRequests.instanceViewMethodCall
+      (payer, _50_000, takamakaCode, GET, container, StorageValues.intOf(index))).get()
+      .asReference(__ -> new ClassCastException());
+  }
+}
@@ -0,0 +1,329 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import java.math.BigInteger;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.hotmoka.node.api.Node;
+import io.hotmoka.node.api.TransactionRejectedException;
+import io.hotmoka.node.api.requests.ConstructorCallTransactionRequest;
+import io.hotmoka.node.api.requests.InstanceMethodCallTransactionRequest;
+import io.hotmoka.node.api.requests.JarStoreTransactionRequest;
+import io.hotmoka.node.api.requests.NonInitialTransactionRequest;
+import io.hotmoka.node.api.transactions.TransactionReference;
+import io.hotmoka.node.api.values.StorageReference;
+import io.hotmoka.node.api.values.StorageValue;
+
+/**
+ * A submitter of transactions that does not wait for a transaction
+ * to be committed before sending the next one. Requests are posted
+ * to the node and their outcome is later collected through futures.
+ * Each payer has its own window of in-flight transactions: nonces are
+ * assigned locally by a {@link NonceManager}, in the same order in which
+ * requests get posted.
+ */
+public class AsyncSubmitter implements AutoCloseable {
+
+  /**
+   * Builds a signed request, once the nonce of its payer is known.
+   */
+  public interface RequestBuilder<R> {
+    R build(BigInteger nonce) throws Exception;
+  }
+
+  /**
+   * Posts a request to the node and yields a way to wait for its outcome.
+   */
+  private interface Poster<R, V> {
+    Posted<V> post(R request) throws Exception;
+  }
+
+  /**
+   * A request posted to the node, with its transaction and a way to wait for its outcome.
+   */
+  private record Posted<V>(NonInitialTransactionRequest<?> request, TransactionReference transaction, Callable<V> outcome) {}
+
+  private final Node node;
+  private final NonceManager nonces;
+  private final int window;
+  private final GasEstimator gas; // null if consumptions are not learned
+  private final ConcurrentMap<StorageReference, Lane> lanes = new ConcurrentHashMap<>();
+
+  /**
+   * The threads that wait for the outcome of the posted transactions.
+   */
+  private final ExecutorService waiters = Executors.newVirtualThreadPerTaskExecutor();
+
+  /**
+   * The transactions of a single payer.
+   */
+  private class Lane {
+    private final StorageReference payer;
+
+    /**
+     * The permits for the transactions of the payer that can be in flight.
+     */
+    private final Semaphore inFlight = new Semaphore(window);
+
+    /**
+     * Held while a request of the payer gets built and posted. This is not a
+     * monitor, since posting blocks on the network and callers might be
+     * virtual threads, that would pin their carrier.
+     */
+    private final ReentrantLock posting = new ReentrantLock();
+
+    /**
+     * The number of transactions of the payer that have been posted
+     * and whose outcome is not known yet, guarded by {@link #settled}.
+     */
+    private int pending;
+    private final ReentrantLock settled = new ReentrantLock();
+    private final Condition idle = settled.newCondition();
+
+    /**
+     * Set when a posted transaction of the payer gets rejected, so that
+     * the nonce of the payer is synchronized again before the next post.
+     */
+    private volatile boolean stale;
+
+    private Lane(StorageReference payer) {
+      this.payer = payer;
+    }
+
+    /**
+     * Builds a request with the next nonce and posts it. This is mutually exclusive,
+     * so that requests reach the node in the same order as their nonces. The nonce
+     * of the payer is synchronized again with the node only after all transactions
+     * of the payer in flight have been settled, since the node does not know
+     * about their nonces yet.
+     */
+    private <R, V> Posted<V> post(RequestBuilder<R> builder, Poster<R, V> poster) throws Exception {
+      posting.lock();
+
+      try {
+        if (stale) {
+          stale = false;
+          drain();
+          nonces.resync(payer);
+        }
+
+        BigInteger nonce = nonces.next(payer);
+
+        try {
+          return pending(poster.post(builder.build(nonce)));
+        }
+        catch (TransactionRejectedException e) {
+          drain();
+          if (nonces.resync(payer).equals(nonce))
+            // the nonce was right, the request has been rejected for another reason
+            throw e;
+
+          // try once more, with the nonce as currently known by the node
+          return pending(poster.post(builder.build(nonces.next(payer))));
+        }
+      }
+      finally {
+        posting.unlock();
+      }
+    }
+
+    private <V> Posted<V> pending(Posted<V> posted) {
+      settled.lock();
+
+      try {
+        pending++;
+        return posted;
+      }
+      finally {
+        settled.unlock();
+      }
+    }
+
+    private void settle() {
+      settled.lock();
+
+      try {
+        if (--pending == 0)
+          idle.signalAll();
+      }
+      finally {
+        settled.unlock();
+      }
+    }
+
+    /**
+     * Waits until no transaction of the payer is in flight.
+     */
+    private void drain() throws InterruptedException {
+      settled.lock();
+
+      try {
+        while (pending > 0)
+          idle.await();
+      }
+      finally {
+        settled.unlock();
+      }
+    }
+  }
+
+  /**
+   * Creates a submitter of transactions to the given node.
+   *
+   * @param node the node
+   * @param nonces the manager of the nonces of the payers
+   * @param window the maximal number of in-flight transactions for each payer
+   */
+  public AsyncSubmitter(Node node, NonceManager nonces, int window) {
+    this(node, nonces, window, null);
+  }
+
+  /**
+   * Creates a submitter of transactions to the given node, that lets the given
+   * estimator learn the gas consumed by each transaction that gets committed.
+   *
+   * @param node the node
+   * @param nonces the manager of the nonces of the payers
+   * @param window the maximal number of in-flight transactions for each payer
+   * @param gas the estimator of the gas limits
+   */
+  public AsyncSubmitter(Node node, NonceManager nonces, int window, GasEstimator gas) {
+    if (window <= 0)
+      throw new IllegalArgumentException("The window must be positive");
+
+    this.node = node;
+    this.nonces = nonces;
+    this.window = window;
+    this.gas = gas;
+  }
+
+  /**
+   * Posts a constructor call transaction.
+   *
+   * @param payer the payer of the transaction
+   * @param builder the builder of the request, given the nonce of the payer
+   * @return the future of the created object
+   */
+  public CompletableFuture<StorageReference> constructorCall
+      (StorageReference payer, RequestBuilder<ConstructorCallTransactionRequest> builder) {
+
+    return submit(payer, builder, request -> {
+      var future = node.postConstructorCallTransaction(request);
+      return new Posted<>(request, future.getReferenceOfRequest(), future::get);
+    });
+  }
+
+  /**
+   * Posts an instance method call transaction.
+   *
+   * @param payer the payer of the transaction
+   * @param builder the builder of the request, given the nonce of the payer
+   * @return the future of the result of the method, if any
+   */
+  public CompletableFuture<Optional<StorageValue>> instanceMethodCall
+      (StorageReference payer, RequestBuilder<InstanceMethodCallTransactionRequest> builder) {
+
+    return submit(payer, builder, request -> {
+      var future = node.postInstanceMethodCallTransaction(request);
+      return new Posted<>(request, future.getReferenceOfRequest(), future::get);
+    });
+  }
+
+  /**
+   * Posts a jar store transaction.
+   *
+   * @param payer the payer of the transaction
+   * @param builder the builder of the request, given the nonce of the payer
+   * @return the future of the reference to the installed jar
+   */
+  public CompletableFuture<TransactionReference> jarStore
+      (StorageReference payer, RequestBuilder<JarStoreTransactionRequest> builder) {
+
+    return submit(payer, builder, request -> {
+      var future = node.postJarStoreTransaction(request);
+      return new Posted<>(request, future.getReferenceOfRequest(), future::get);
+    });
+  }
+
+  private <R, V> CompletableFuture<V> submit(StorageReference payer, RequestBuilder<R> builder, Poster<R, V> poster) {
+    Lane lane = lanes.computeIfAbsent(payer, Lane::new);
+    Posted<V> posted;
+
+    try {
+      // blocks if the window of the payer is full
+      lane.inFlight.acquire();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return CompletableFuture.failedFuture(e);
+    }
+
+    try {
+      posted = lane.post(builder, poster);
+    }
+    catch (Exception e) {
+      lane.inFlight.release();
+      return CompletableFuture.failedFuture(e);
+    }
+
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        V result = posted.outcome.call();
+        learn(posted);
+        return result;
+      }
+      catch (TransactionRejectedException e) {
+        // later transactions of the payer might be in flight already, hence the nonce
+        // gets synchronized again only by the next post, once they have been settled
+        lane.stale = true;
+        throw new CompletionException(e);
+      }
+      catch (Exception e) {
+        // a transaction that ran out of gas raises the limit of its class
+        learn(posted);
+        throw new CompletionException(e);
+      }
+      finally {
+        lane.settle();
+        lane.inFlight.release();
+      }
+    }, waiters);
+  }
+
+  private void learn(Posted<?> posted) {
+    if (gas != null)
+      gas.learn(posted.request, posted.transaction);
+  }
+
+  @Override
+  public void close() {
+    waiters.shutdown();
+  }
+}
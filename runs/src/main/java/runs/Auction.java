@@ -21,32 +21,27 @@ package runs;
 import static io.hotmoka.helpers.Coin.panarea;
 import static io.hotmoka.node.StorageTypes.BIG_INTEGER;
 import static io.hotmoka.node.StorageTypes.BOOLEAN;
-import static io.hotmoka.node.StorageTypes.BYTE;
-import static io.hotmoka.node.StorageTypes.BYTES32_SNAPSHOT;
 import static io.hotmoka.node.StorageTypes.INT;
+import static io.hotmoka.node.StorageTypes.LONG;
 import static io.hotmoka.node.StorageTypes.PAYABLE_CONTRACT;
-import static io.hotmoka.node.StorageValues.byteOf;
+import static io.hotmoka.node.StorageValues.longOf;
 
 import java.math.BigInteger;
-import java.net.URI;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.KeyPair;
 import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Optional;
 import java.util.Random;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.hotmoka.crypto.api.Signer;
-import io.hotmoka.helpers.GasHelpers;
-import io.hotmoka.helpers.NonceHelpers;
-import io.hotmoka.helpers.SignatureHelpers;
-import io.hotmoka.helpers.api.GasHelper;
-import io.hotmoka.helpers.api.NonceHelper;
-import io.hotmoka.node.Accounts;
 import io.hotmoka.node.ConstructorSignatures;
 import io.hotmoka.node.MethodSignatures;
 import io.hotmoka.node.StorageTypes;
@@ -60,13 +55,16 @@ import io.hotmoka.node.api.transactions.TransactionReference;
 import io.hotmoka.node.api.types.ClassType;
 import io.hotmoka.node.api.values.StorageReference;
 import io.hotmoka.node.api.values.StorageValue;
-import io.hotmoka.node.remote.RemoteNodes;
 
 /**
  * Run in the IDE or go inside this project and run
  * 
  * mvn clean package
  * java --module-path ../../hotmoka/io-hotmoka-moka/modules/explicit/:../../hotmoka/io-hotmoka-moka/modules/automatic:target/runs-0.0.1.jar -classpath ../../hotmoka/io-hotmoka-moka/modules/unnamed"/*" --add-modules org.glassfish.tyrus.container.grizzly.server,org.glassfish.tyrus.container.grizzly.client --module runs/runs.Auction
+ *
+ * or, against a disk node embedded in the same JVM, with phases compressed to seconds:
+ *
+ * java -Dnode=disk -DbiddingTime=5000 -DrevealTime=5000 ... --module runs/runs.Auction
  */
 public class Auction {
   // change this with your accounts' storage references
@@ -78,31 +76,30 @@ public class Auction {
     ADDRESSES[2] = "eec01b6f22911f76dbd25bda6f850e9af9e8640a4530a46c1909f48b9c7976a3#0";
   }
 
+  // the passwords of the keys of the accounts, in the same order
+  private final static String[] PASSWORDS = { "chocolate", "orange", "apple" };
+  private final static String URI_OF_NODE = "ws://panarea.hotmoka.io";
+
   public final static int NUM_BIDS = 10; // number of bids placed
-  public final static int BIDDING_TIME = 130_000; // in milliseconds
-  public final static int REVEAL_TIME = 170_000; // in milliseconds
+  public final static int BIDDING_TIME = Integer.getInteger("biddingTime", 130_000); // in milliseconds
+  public final static int REVEAL_TIME = Integer.getInteger("revealTime", 170_000); // in milliseconds
+  public final static int GAS_PRICE_TTL = 10_000; // in milliseconds
+  public final static String JAR_CACHE = "jars.properties"; // default file of the installed jars, inside the session cache
+  public final static int GAS_HEADROOM = 20; // percentage added to the largest gas consumption seen
+  public final static int WINDOW = 16; // maximal number of in-flight transactions per player
+  public final static int REVEAL_CONCURRENCY = 8; // maximal number of reveals being posted at the same time
 
   private final static BigInteger _500_000 = BigInteger.valueOf(500_000);
+  private final static BigInteger _1_000_000 = BigInteger.valueOf(1_000_000);
 
   private final static ClassType BLIND_AUCTION
     = StorageTypes.classNamed("io.takamaka.auction.BlindAuction");
   private final static ConstructorSignature CONSTRUCTOR_BLIND_AUCTION
     = ConstructorSignatures.of(BLIND_AUCTION, INT, INT);
-  private final static ConstructorSignature CONSTRUCTOR_BYTES32_SNAPSHOT
-    = ConstructorSignatures.of(BYTES32_SNAPSHOT,
-      BYTE, BYTE, BYTE, BYTE, BYTE, BYTE, BYTE, BYTE,
-      BYTE, BYTE, BYTE, BYTE, BYTE, BYTE, BYTE, BYTE,
-      BYTE, BYTE, BYTE, BYTE, BYTE, BYTE, BYTE, BYTE,
-      BYTE, BYTE, BYTE, BYTE, BYTE, BYTE, BYTE, BYTE);
-  private final static ConstructorSignature CONSTRUCTOR_REVEALED_BID
-    = ConstructorSignatures.of(
-      StorageTypes.classNamed("io.takamaka.auction.BlindAuction$RevealedBid"),
-      BIG_INTEGER, BOOLEAN, BYTES32_SNAPSHOT);
   private final static MethodSignature BID = MethodSignatures.ofVoid
-      (BLIND_AUCTION, "bid", BIG_INTEGER, BYTES32_SNAPSHOT);
+      (BLIND_AUCTION, "bid", BIG_INTEGER, LONG, LONG, LONG, LONG);
   private final static MethodSignature REVEAL = MethodSignatures.ofVoid
-      (BLIND_AUCTION, "reveal",
-      StorageTypes.classNamed("io.takamaka.auction.BlindAuction$RevealedBid"));
+      (BLIND_AUCTION, "reveal", BIG_INTEGER, BOOLEAN, LONG, LONG, LONG, LONG);
   private final static MethodSignature AUCTION_END = MethodSignatures.ofNonVoid
       (BLIND_AUCTION, "auctionEnd", PAYABLE_CONTRACT);
 
@@ -114,17 +111,27 @@ public class Auction {
   private final StorageReference[] accounts;
   private final List<Signer<SignedTransactionRequest<?>>> signers;
   private final String chainId;
-  private final long start;  // the time when bids started being placed
+  private final PhaseWatcher phases;
   private final Node node;
   private final TransactionReference classpath;
   private final StorageReference auction;
   private final List<BidToReveal> bids = new ArrayList<>();
-  private final GasHelper gasHelper;
-  private final NonceHelper nonceHelper;
+  private final GasPriceCache gasPrices;
+  private final JarCache jars;
+  private final GasEstimator gas;
+  private final NonceManager nonces;
+  private final AsyncSubmitter submitter;
 
   public static void main(String[] args) throws Exception {
-    try (Node node = RemoteNodes.of(URI.create("ws://panarea.hotmoka.io"), 20000)) {
-      new Auction(node);
+    var passwords = new LinkedHashMap<StorageReference, String>();
+    for (int pos = 0; pos < ADDRESSES.length; pos++)
+      passwords.put(StorageValues.reference(ADDRESSES[pos]), PASSWORDS[pos]);
+
+    // the immutable data of a remote node can be kept on disk across runs, if required;
+    // -Dnode=disk runs against an embedded node instead, with fresh accounts
+    try (var target = new NodeTarget(System.getProperty("node", URI_OF_NODE),
+        Optional.ofNullable(System.getProperty("sessionCache")).map(Paths::get), "..", passwords)) {
+      new Auction(target.getNode(), target.getSession());
     }
   }
 
@@ -146,98 +153,99 @@ public class Auction {
     }
 
     /**
-     * Creates in store a revealed bid corresponding to this object.
+     * Yields the actual arguments of the reveal call for this bid.
+     * The salt is passed as four long words, in big-endian order.
      * 
-     * @return the storage reference to the freshly created revealed bid
+     * @return the actual arguments
      */
-    private StorageReference intoBlockchain() throws Exception {
-      StorageReference bytes32 = node.addConstructorCallTransaction(TransactionRequests.constructorCall
-        (signers.get(player), accounts[player],
-        nonceHelper.getNonceOf(accounts[player]), chainId, _500_000,
-        panarea(gasHelper.getSafeGasPrice()), classpath, CONSTRUCTOR_BYTES32_SNAPSHOT,
-        byteOf(salt[0]), byteOf(salt[1]), byteOf(salt[2]), byteOf(salt[3]),
-        byteOf(salt[4]), byteOf(salt[5]), byteOf(salt[6]), byteOf(salt[7]),
-        byteOf(salt[8]), byteOf(salt[9]), byteOf(salt[10]), byteOf(salt[11]),
-        byteOf(salt[12]), byteOf(salt[13]), byteOf(salt[14]), byteOf(salt[15]),
-        byteOf(salt[16]), byteOf(salt[17]), byteOf(salt[18]), byteOf(salt[19]),
-        byteOf(salt[20]), byteOf(salt[21]), byteOf(salt[22]), byteOf(salt[23]),
-        byteOf(salt[24]), byteOf(salt[25]), byteOf(salt[26]), byteOf(salt[27]),
-        byteOf(salt[28]), byteOf(salt[29]), byteOf(salt[30]), byteOf(salt[31])));
-
-      return node.addConstructorCallTransaction(TransactionRequests.constructorCall
-        (signers.get(player), accounts[player],
-        nonceHelper.getNonceOf(accounts[player]), chainId,
-        _500_000, panarea(gasHelper.getSafeGasPrice()), classpath, CONSTRUCTOR_REVEALED_BID,
-        StorageValues.bigIntegerOf(value), StorageValues.booleanOf(fake), bytes32));
+    private StorageValue[] revealArguments() {
+      var words = ByteBuffer.wrap(salt);
+      return new StorageValue[] {
+        StorageValues.bigIntegerOf(value), StorageValues.booleanOf(fake),
+        longOf(words.getLong()), longOf(words.getLong()), longOf(words.getLong()), longOf(words.getLong())
+      };
     }
   }
 
-  private Auction(Node node) throws Exception {
+  private Auction(Node node, Session session) throws Exception {
     this.node = node;
-    takamakaCode = node.getTakamakaCode();
-    accounts = Stream.of(ADDRESSES).map(StorageValues::reference).toArray(StorageReference[]::new);
-    var signature = node.getConfig().getSignatureForRequests();
-    signers = Stream.of(accounts).map(this::loadKeys).map(KeyPair::getPrivate)
-      .map(key -> signature.getSigner(key, SignedTransactionRequest<?>::toByteArrayWithoutSignature))
-      .collect(Collectors.toCollection(ArrayList::new));
-    gasHelper = GasHelpers.of(node);
-    nonceHelper = NonceHelpers.of(node);
-    chainId = getChainId();
-    classpath = installJar();
-    auction = createContract();
-    start = System.currentTimeMillis();
-
-    StorageReference expectedWinner = placeBids();
-    waitUntilEndOfBiddingTime();
-    revealBids();
-    waitUntilEndOfRevealTime();
-    StorageValue winner = askForWinner();
-
-    // show that the contract computes the correct winner
-    System.out.println("expected winner: " + expectedWinner);
-    System.out.println("actual winner: " + winner);
+    takamakaCode = session.getTakamakaCode();
+    accounts = session.getAccounts();
+    signers = session.getSigners();
+    chainId = session.getChainId();
+    nonces = session.getNonces();
+    // the installed jars are kept in the file given as -DjarCache=file or, by default, next to the session cache, if any
+    jars = new JarCache(node, Optional.ofNullable(System.getProperty("jarCache")).map(Paths::get)
+      .or(() -> Optional.ofNullable(System.getProperty("sessionCache")).map(dir -> Paths.get(dir, JAR_CACHE))));
+
+    // the resources are closed also if the run fails, from its very start
+    try (var gasPrices = new GasPriceCache(node, GAS_PRICE_TTL, 0);
+         // the gas limits are learned from the committed transactions, also across runs if required
+         var gas = new GasEstimator(node, GAS_HEADROOM, Optional.ofNullable(System.getProperty("gasEstimates")).map(Paths::get));
+         var submitter = new AsyncSubmitter(node, nonces, WINDOW, gas)) {
+
+      this.gasPrices = gasPrices;
+      this.gas = gas;
+      this.submitter = submitter;
+      classpath = installJar();
+      long sent = System.currentTimeMillis();
+      auction = createContract();
+      long committed = System.currentTimeMillis();
+      phases = new PhaseWatcher(node, accounts[0], classpath, auction);
+      // the contract was created at the beginning of the bidding time, in node time
+      phases.calibrate(sent, committed, phases.getBiddingEnd() - BIDDING_TIME);
+      System.out.println(phases);
+
+      StorageReference expectedWinner = placeBids();
+      phases.waitUntilEndOfBiddingTime();
+      revealBids();
+      phases.waitUntilEndOfRevealTime();
+      StorageValue winner = askForWinner();
+
+      // show that the contract computes the correct winner
+      System.out.println("expected winner: " + expectedWinner);
+      System.out.println("actual winner: " + winner);
+      System.out.println(gasPrices);
+      System.out.println(jars);
+      System.out.println(gas);
+    }
   }
 
   private StorageReference createContract() throws Exception {
     System.out.println("Creating contract");
 
-    return node.addConstructorCallTransaction
-      (TransactionRequests.constructorCall(signers.get(0), accounts[0],
-      nonceHelper.getNonceOf(accounts[0]), chainId, _500_000, panarea(gasHelper.getSafeGasPrice()),
-      classpath, CONSTRUCTOR_BLIND_AUCTION,
-      StorageValues.intOf(BIDDING_TIME), StorageValues.intOf(REVEAL_TIME)));
-  }
+    StorageValue[] arguments = { StorageValues.intOf(BIDDING_TIME), StorageValues.intOf(REVEAL_TIME) };
 
-  private String getChainId() throws Exception {
-	StorageReference manifest = node.getManifest();
-    return node.runInstanceMethodCallTransaction(TransactionRequests.instanceViewMethodCall
-      (accounts[0], // payer
-      BigInteger.valueOf(50_000), // gas limit
-      takamakaCode, // class path for the execution of the transaction
-      MethodSignatures.GET_CHAIN_ID, // method
-      manifest)).get() // receiver of the method call
-        .asString(__ -> new ClassCastException());
+    return submitter.constructorCall(accounts[0], nonce -> TransactionRequests.constructorCall
+      (signers.get(0), accounts[0], nonce, chainId,
+      gas.limitFor(CONSTRUCTOR_BLIND_AUCTION, _500_000, arguments), panarea(gasPrices.getSafeGasPrice()),
+      classpath, CONSTRUCTOR_BLIND_AUCTION, arguments)).get();
   }
 
   private TransactionReference installJar() throws Exception {
     System.out.println("Installing jar");
 
-    return node.addJarStoreTransaction(TransactionRequests.jarStore
+    // the jar is installed again only if it changed since the last run
+    return jars.install(auctionPath, bytes -> submitter.jarStore(accounts[0], nonce -> TransactionRequests.jarStore
       (signers.get(0), // an object that signs with the payer's private key
       accounts[0], // payer
-      nonceHelper.getNonceOf(accounts[0]), // payer's nonce
+      nonce, // payer's nonce
       chainId, // chain identifier
-      BigInteger.valueOf(1_000_000), // gas limit: enough for this very small jar
-      gasHelper.getSafeGasPrice(), // gas price: at least the current gas price of the network
+      gas.limitForJar(bytes, _1_000_000), // gas limit: as learned, or enough for this very small jar
+      gasPrices.getSafeGasPrice(), // gas price: at least the current gas price of the network
       takamakaCode, // class path for the execution of the transaction
-      Files.readAllBytes(auctionPath), // bytes of the jar to install
-      takamakaCode)); // dependency
+      bytes, // bytes of the jar to install
+      takamakaCode)).get(), // dependency
+      takamakaCode);
   }
 
   private StorageReference placeBids() throws Exception {
     var maxBid = BigInteger.ZERO;
     StorageReference expectedWinner = null;
-    var random = new Random();
+    // a fixed seed, given as -Dseed, places the same bids at each run
+    Long seed = Long.getLong("seed");
+    var random = seed == null ? new Random() : new Random(seed);
+    var placed = new ArrayList<CompletableFuture<?>>();
 
     int i = 1;
     while (i <= NUM_BIDS) { // generate NUM_BIDS random bids
@@ -249,9 +257,6 @@ public class Auction {
       var salt = new byte[32];
       random.nextBytes(salt); // random 32 bytes of salt for each bid
 
-      // create a Bytes32 hash of the bid in the store of the node
-      StorageReference bytes32 = codeAsBytes32(player, value, fake, salt);
-
       // keep note of the best bid, to verify the result at the end
       if (!fake && deposit.compareTo(value) >= 0)
         if (expectedWinner == null || value.compareTo(maxBid) > 0) {
@@ -267,119 +272,77 @@ public class Auction {
       // since it would be visible there
       bids.add(new BidToReveal(player, value, fake, salt));
 
-      // place a hashed bid in the node
-      node.addInstanceMethodCallTransaction(TransactionRequests.instanceMethodCall
+      // place a hashed bid in the node, without waiting: the hash is passed
+      // as four long words, from which the contract builds it
+      long[] hash = codeAsLongs(value, fake, salt);
+      StorageValue[] arguments = { StorageValues.bigIntegerOf(deposit),
+        longOf(hash[0]), longOf(hash[1]), longOf(hash[2]), longOf(hash[3]) };
+      placed.add(submitter.instanceMethodCall(accounts[player], nonce -> TransactionRequests.instanceMethodCall
         (signers.get(player), accounts[player],
-        nonceHelper.getNonceOf(accounts[player]), chainId,
-        _500_000, panarea(gasHelper.getSafeGasPrice()), classpath, BID,
-        auction, StorageValues.bigIntegerOf(deposit), bytes32));
+        nonce, chainId,
+        gas.limitFor(BID, _500_000, arguments), panarea(gasPrices.getSafeGasPrice()), classpath, BID,
+        auction, arguments)));
 
       i++;
     }
 
+    // wait until all bids have been committed
+    CompletableFuture.allOf(placed.toArray(CompletableFuture[]::new)).get();
+
     return expectedWinner;
   }
 
   private void revealBids() throws Exception {
-    // we create the revealed bids in blockchain; this is safe now, since the bidding time is over
-    int counter = 1;
-    for (BidToReveal bid: bids) {
-      System.out.println("Revealing bid " + counter++ + " out of " + bids.size());
+    // we reveal the bids in blockchain, one transaction per bid; this is safe now,
+    // since the bidding time is over; bids can be revealed in any order,
+    // since the contract looks them up by their hash; hence the bids of distinct
+    // players are posted concurrently, while those of the same player are posted
+    // in order, so that their nonces reach the node in sequence
+    var revealed = new ConcurrentLinkedQueue<CompletableFuture<?>>();
+    // the cost of a reveal grows with the bids stored for its caller: their upper bound,
+    // the number of bids placed by the caller, does not change anymore and is its load
+    var placed = new HashMap<StorageReference, Integer>();
+    for (var bid: bids)
+      placed.merge(accounts[bid.player], 1, Integer::sum);
+
+    gas.dependsOnLoad(REVEAL, caller -> placed.getOrDefault(caller, 0));
+
+    var counter = new AtomicInteger(1);
+    Partitions.run(bids, bid -> bid.player, REVEAL_CONCURRENCY, bid -> {
+      System.out.println("Revealing bid " + counter.getAndIncrement() + " out of " + bids.size());
       int player = bid.player;
-      StorageReference bidInBlockchain = bid.intoBlockchain();
-      node.addInstanceMethodCallTransaction(TransactionRequests.instanceMethodCall
+      StorageValue[] arguments = bid.revealArguments();
+      revealed.add(submitter.instanceMethodCall(accounts[player], nonce -> TransactionRequests.instanceMethodCall
         (signers.get(player), accounts[player],
-        nonceHelper.getNonceOf(accounts[player]), chainId, _500_000,
-        panarea(gasHelper.getSafeGasPrice()),
-        classpath, REVEAL, auction, bidInBlockchain));
-    }
+        nonce, chainId, gas.limitFor(REVEAL, accounts[player], _500_000, arguments),
+        panarea(gasPrices.getSafeGasPrice()),
+        classpath, REVEAL, auction, arguments)));
+    });
+
+    // wait until all reveals have been committed
+    CompletableFuture.allOf(revealed.toArray(CompletableFuture[]::new)).get();
   }
 
   private StorageReference askForWinner() throws Exception {
-    StorageValue winner = node.addInstanceMethodCallTransaction
-      (TransactionRequests.instanceMethodCall
-      (signers.get(0), accounts[0], nonceHelper.getNonceOf(accounts[0]),
-      chainId, _500_000, panarea(gasHelper.getSafeGasPrice()),
-      classpath, AUCTION_END, auction)).get();
+    StorageValue winner = submitter.instanceMethodCall(accounts[0], nonce -> TransactionRequests.instanceMethodCall
+      (signers.get(0), accounts[0], nonce,
+      chainId, gas.limitFor(AUCTION_END, _500_000), panarea(gasPrices.getSafeGasPrice()),
+      classpath, AUCTION_END, auction)).get().get();
 
     // the winner is normally a StorageReference,
     // but it could be a NullValue if all bids were fake
     return winner instanceof StorageReference ? (StorageReference) winner : null;
   }
 
-  private void waitUntilEndOfBiddingTime() {
-    waitUntil(BIDDING_TIME + 5000);
-  }
-
-  private void waitUntilEndOfRevealTime() {
-    waitUntil(BIDDING_TIME + REVEAL_TIME + 5000);
-  }
-
   /**
-   * Waits until a specific time after start.
+   * Hashes a bid and yields the hash as four long words, in big-endian order.
    */
-  private void waitUntil(long duration) {
-    try {
-      Thread.sleep(start + duration - System.currentTimeMillis());
-    }
-    catch (InterruptedException e) {}
-  }
-
-  /**
-   * Hashes a bid and put it in the store of the node, in hashed form.
-   */
-  private StorageReference codeAsBytes32(int player, BigInteger value, boolean fake, byte[] salt) throws Exception {
+  private long[] codeAsLongs(BigInteger value, boolean fake, byte[] salt) {
     digest.reset();
     digest.update(value.toByteArray());
     digest.update(fake ? (byte) 0 : (byte) 1);
     digest.update(salt);
-    byte[] hash = digest.digest();
-    return createBytes32(player, hash);
-  }
-
-  /**
-   * Creates a Bytes32Snapshot object in the store of the node.
-   */
-  private StorageReference createBytes32(int player, byte[] hash) throws Exception {
-    return node.addConstructorCallTransaction
-      (TransactionRequests.constructorCall(
-      signers.get(player),
-      accounts[player],
-      nonceHelper.getNonceOf(accounts[player]), chainId,
-      _500_000, panarea(gasHelper.getSafeGasPrice()),
-      classpath, CONSTRUCTOR_BYTES32_SNAPSHOT,
-      byteOf(hash[0]), byteOf(hash[1]),
-      byteOf(hash[2]), byteOf(hash[3]),
-      byteOf(hash[4]), byteOf(hash[5]),
-      byteOf(hash[6]), byteOf(hash[7]),
-      byteOf(hash[8]), byteOf(hash[9]),
-      byteOf(hash[10]), byteOf(hash[11]),
-      byteOf(hash[12]), byteOf(hash[13]),
-      byteOf(hash[14]), byteOf(hash[15]),
-      byteOf(hash[16]), byteOf(hash[17]),
-      byteOf(hash[18]), byteOf(hash[19]),
-      byteOf(hash[20]), byteOf(hash[21]),
-      byteOf(hash[22]), byteOf(hash[23]),
-      byteOf(hash[24]), byteOf(hash[25]),
-      byteOf(hash[26]), byteOf(hash[27]),
-      byteOf(hash[28]), byteOf(hash[29]),
-      byteOf(hash[30]), byteOf(hash[31])));
-  }
-
-  private KeyPair loadKeys(StorageReference account) {
-    try {
-      String password;
-      if (account.toString().equals(ADDRESSES[0]))
-        password = "chocolate";
-      else if (account.toString().equals(ADDRESSES[1]))
-        password = "orange";
-      else
-        password = "apple";
-
-      return Accounts.of(account, "..").keys(password, SignatureHelpers.of(node).signatureAlgorithmFor(account));
-    }
-    catch (Exception e) {
-      throw new RuntimeException(e);
-    }
+    var hash = ByteBuffer.wrap(digest.digest());
+    return new long[] { hash.getLong(), hash.getLong(), hash.getLong(), hash.getLong() };
   }
 }
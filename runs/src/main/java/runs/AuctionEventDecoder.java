@@ -0,0 +1,127 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import io.hotmoka.node.api.updates.ClassTag;
+import io.hotmoka.node.api.updates.Update;
+import io.hotmoka.node.api.updates.UpdateOfField;
+import io.hotmoka.node.api.values.StorageReference;
+import io.hotmoka.node.api.values.StorageValue;
+
+/**
+ * A decoder of the events of the blind auction into Java objects.
+ * The state of each event is fetched at once, through a cache,
+ * since events never change.
+ */
+public class AuctionEventDecoder {
+  private final static String BID_INCREASE = "io.takamaka.auction.BidIncrease";
+  private final static String AUCTION_END = "io.takamaka.auction.AuctionEnd";
+
+  private final StateCache states;
+
+  /**
+   * An event of the blind auction.
+   */
+  public sealed interface AuctionEvent permits BidIncrease, AuctionEnd {
+
+    /**
+     * Yields the event, in the node.
+     *
+     * @return the event
+     */
+    StorageReference event();
+
+    /**
+     * Yields the auction that generated the event.
+     *
+     * @return the auction
+     */
+    StorageReference auction();
+  }
+
+  /**
+   * The event generated when a revealed bid becomes the highest one.
+   */
+  public record BidIncrease(StorageReference event, StorageReference auction, StorageReference bidder, BigInteger amount) implements AuctionEvent {}
+
+  /**
+   * The event generated when the auction ends with a winner.
+   */
+  public record AuctionEnd(StorageReference event, StorageReference auction, StorageReference highestBidder, BigInteger highestBid) implements AuctionEvent {}
+
+  /**
+   * Creates a decoder of the events of the blind auction.
+   *
+   * @param states the cache used to fetch the state of the events
+   */
+  public AuctionEventDecoder(StateCache states) {
+    this.states = states;
+  }
+
+  /**
+   * Decodes an event.
+   *
+   * @param auction the auction that generated the event
+   * @param event the event
+   * @return the decoded event, or empty if it is not an event of the blind auction
+   */
+  public Optional<AuctionEvent> decode(StorageReference auction, StorageReference event) throws Exception {
+    String className = null;
+    Map<String, StorageValue> fields = new HashMap<>();
+
+    for (Update update: states.getImmutableState(event)) {
+      if (update instanceof ClassTag tag)
+        className = tag.getClazz().getName();
+      else if (update instanceof UpdateOfField field)
+        fields.put(field.getField().getName(), field.getValue());
+    }
+
+    if (BID_INCREASE.equals(className))
+      return Optional.of(new BidIncrease(event, auction,
+        referenceOf(fields, "bidder", event), bigIntegerOf(fields, "amount", event)));
+    else if (AUCTION_END.equals(className))
+      return Optional.of(new AuctionEnd(event, auction,
+        referenceOf(fields, "highestBidder", event), bigIntegerOf(fields, "highestBid", event)));
+    else
+      return Optional.empty();
+  }
+
+  private static StorageReference referenceOf(Map<String, StorageValue> fields, String name, StorageReference event) {
+    return valueOf(fields, name, event).asReference
+      (value -> new IllegalStateException("Field " + name + " of event " + event + " is not a reference"));
+  }
+
+  private static BigInteger bigIntegerOf(Map<String, StorageValue> fields, String name, StorageReference event) {
+    return valueOf(fields, name, event).asBigInteger
+      (value -> new IllegalStateException("Field " + name + " of event " + event + " is not a big integer"));
+  }
+
+  private static StorageValue valueOf(Map<String, StorageValue> fields, String name, StorageReference event) {
+    StorageValue value = fields.get(name);
+    if (value == null)
+      throw new IllegalStateException("Event " + event + " has no field " + name);
+
+    return value;
+  }
+}
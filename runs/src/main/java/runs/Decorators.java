@@ -39,7 +39,9 @@ import io.takamaka.code.constants.Constants;
  * java --module-path ../../hotmoka/io-hotmoka-moka/modules/explicit/:../../hotmoka/io-hotmoka-moka/modules/automatic:target/runs-0.0.1.jar -classpath ../../hotmoka/io-hotmoka-moka/modules/unnamed"/*" --add-modules org.glassfish.tyrus.container.grizzly.server,org.glassfish.tyrus.container.grizzly.client --module runs/runs.Decorators
  */
 public class Decorators {
-  public final static BigInteger SUPPLY = BigInteger.valueOf(1_000_000_000);
+  public final static BigInteger SUPPLY = BigInteger.valueOf(1_000_000_000); // without the accounts created in bulk
+  public final static BigInteger BULK_FUNDS = LoadGenerator.FUNDS; // initial balance of the accounts created in bulk, for the load drivers
+  public final static String KEY_FILE = "accounts.keys"; // default file of the accounts created in bulk
 
   public static void main(String[] args) throws Exception {
     var config = DiskNodeConfigBuilders.defaults().build();
@@ -52,12 +54,18 @@ public class Decorators {
     // the path of the user jar to install
     var familyPath = Paths.get("../family/target/family-0.0.1.jar");
 
+    // the gamete pays also for the accounts created in bulk, if any; the gas price
+    // can grow while they are created, hence their cost is bounded at twice the initial price
+    int accounts = Integer.getInteger("accounts", 0);
+    BigInteger gasPrice = ConsensusConfigBuilders.defaults().build().getInitialGasPrice().multiply(BigInteger.TWO);
+    BigInteger supply = SUPPLY.add(AccountProvisioner.costOf(accounts, BULK_FUNDS, gasPrice));
+
     // create a key pair for the gamete
     var signature = SignatureAlgorithms.ed25519();
 	var entropy = Entropies.random();
 	KeyPair keys = entropy.keys("password", signature);
 	var consensus = ConsensusConfigBuilders.defaults()
-   		.setInitialSupply(SUPPLY)
+   		.setInitialSupply(supply)
    		.setPublicKeyOfGamete(keys.getPublic()).build();
 
 	try (var node = DiskNodes.init(config)) {
@@ -79,6 +87,20 @@ public class Decorators {
                          "\n  with private key " + nodeWithAccounts.privateKey(0));
       System.out.println("account #1: " + nodeWithAccounts.account(1) +
                          "\n  with private key " + nodeWithAccounts.privateKey(1));
+
+      // fourth view, only if -Daccounts=N is given: create N accounts in bulk, for the load
+      // drivers, and write them in a key file; the gamete will pay
+      if (accounts > 0) {
+        var provisioner = new AccountProvisioner(node, initialized.gamete(), keys.getPrivate(), new NonceManager(node));
+        var provisioned = provisioner.provision(accounts, BULK_FUNDS);
+        var keyFile = Paths.get(System.getProperty("keyFile", KEY_FILE));
+        KeyFile.write(keyFile, provisioner.getSignature(),
+          provisioned.stream().map(AccountProvisioner.Provisioned::account).toList(),
+          provisioned.stream().map(AccountProvisioner.Provisioned::key).toList());
+
+        System.out.println(provisioner);
+        System.out.println(accounts + " accounts written in " + keyFile);
+      }
     }
   }
 }
\ No newline at end of file
@@ -0,0 +1,300 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+
+import io.hotmoka.crypto.api.Signer;
+import io.hotmoka.node.StorageValues;
+import io.hotmoka.node.TransactionRequests;
+import io.hotmoka.node.api.Node;
+import io.hotmoka.node.api.requests.SignedTransactionRequest;
+import io.hotmoka.node.api.transactions.TransactionReference;
+import io.hotmoka.node.api.values.StorageReference;
+import io.hotmoka.node.remote.RemoteNodes;
+
+/**
+ * Installs the jars of all tutorial modules in a node. The dependencies
+ * among modules are read from their pom.xml files: a module is installed as
+ * soon as all its dependencies are installed, hence independent modules are
+ * installed concurrently, from distinct payers. Jars that did not change
+ * since their last installation are not installed again.
+ *
+ * Run in the IDE or go inside this project and run
+ *
+ * mvn clean package
+ * java --module-path ../../hotmoka/io-hotmoka-moka/modules/explicit/:../../hotmoka/io-hotmoka-moka/modules/automatic:target/runs-0.0.1.jar -classpath ../../hotmoka/io-hotmoka-moka/modules/unnamed"/*" --add-modules org.glassfish.tyrus.container.grizzly.server,org.glassfish.tyrus.container.grizzly.client --module runs/runs.Deployer [module...]
+ */
+public class Deployer {
+  // change this with your accounts' storage references
+  private final static String[] ADDRESSES = new String[3];
+
+  static {
+    ADDRESSES[0] = "5f705b7dc5869ae39db3bc80b7cd073c2bb55726706749138d16a4a9d0f01766#0";
+    ADDRESSES[1] = "12441d4a2f52e80f93e726040fbc364b75e7fedbef96887110df678794d791ea#0";
+    ADDRESSES[2] = "eec01b6f22911f76dbd25bda6f850e9af9e8640a4530a46c1909f48b9c7976a3#0";
+  }
+
+  // the passwords of the keys of the accounts, in the same order
+  private final static String[] PASSWORDS = { "chocolate", "orange", "apple" };
+  private final static String URI_OF_NODE = "ws://panarea.hotmoka.io";
+
+  public final static String GROUP_ID = "io.hotmoka.tutorial"; // the group of the tutorial modules
+  public final static String TAKAMAKA_CODE = "io-takamaka-code"; // the dependency of every Takamaka module
+  public final static Set<String> EXCLUDED = Set.of("family_wrong"); // modules that are not meant to be installed
+  public final static int GAS_PRICE_TTL = 10_000; // in milliseconds
+  public final static int WINDOW = 16; // maximal number of in-flight transactions per payer
+  public final static String JAR_CACHE = "jars.properties"; // default file of the installed jars, inside the session cache
+  public final static int GAS_HEADROOM = 20; // percentage added to the largest gas consumption seen
+
+  private final static BigInteger _1_000_000 = BigInteger.valueOf(1_000_000);
+
+  private final Node node;
+  private final TransactionReference takamakaCode;
+  private final StorageReference[] accounts;
+  private final List<Signer<SignedTransactionRequest<?>>> signers;
+  private final String chainId;
+  private final GasPriceCache gasPrices;
+  private final JarCache jars;
+  private final GasEstimator gas;
+  private final AsyncSubmitter submitter;
+
+  /**
+   * The payer of the next installation, modulo the number of accounts.
+   */
+  private final AtomicInteger nextPayer = new AtomicInteger();
+
+  /**
+   * The threads that install the modules, whose dependencies are installed already.
+   */
+  private final ExecutorService installers = Executors.newVirtualThreadPerTaskExecutor();
+
+  /**
+   * A tutorial module, with the names of the modules it depends on.
+   */
+  private record Module(String name, Path jar, List<String> dependencies) {}
+
+  public static void main(String[] args) throws Exception {
+    Map<String, Module> modules = readModules(Paths.get(".."), List.of(args));
+
+    try (var node = RemoteNodes.of(URI.create(URI_OF_NODE), 20000)) {
+      new Deployer(node, URI_OF_NODE, modules);
+    }
+  }
+
+  private Deployer(Node node, String uri, Map<String, Module> modules) throws Exception {
+    this.node = node;
+    var passwords = new LinkedHashMap<StorageReference, String>();
+    for (int pos = 0; pos < ADDRESSES.length; pos++)
+      passwords.put(StorageValues.reference(ADDRESSES[pos]), PASSWORDS[pos]);
+
+    var session = new Session(node, uri, Optional.ofNullable(System.getProperty("sessionCache")).map(Paths::get), "..", passwords);
+    takamakaCode = session.getTakamakaCode();
+    accounts = session.getAccounts();
+    signers = session.getSigners();
+    chainId = session.getChainId();
+    // -DjarCache=file overrides the default file inside -DsessionCache=dir; without either, nothing is kept on disk
+    jars = new JarCache(node, Optional.ofNullable(System.getProperty("jarCache")).map(Paths::get)
+      .or(() -> Optional.ofNullable(System.getProperty("sessionCache")).map(dir -> Paths.get(dir, JAR_CACHE))));
+
+    // the resources are closed also if the deployment fails, from its very start
+    try (var gasPrices = new GasPriceCache(node, GAS_PRICE_TTL, 0);
+         var gas = new GasEstimator(node, GAS_HEADROOM, Optional.ofNullable(System.getProperty("gasEstimates")).map(Paths::get));
+         var submitter = new AsyncSubmitter(node, session.getNonces(), WINDOW, gas)) {
+
+      this.gasPrices = gasPrices;
+      this.gas = gas;
+      this.submitter = submitter;
+      long start = System.currentTimeMillis();
+      var installed = new LinkedHashMap<String, CompletableFuture<TransactionReference>>();
+      for (String name: modules.keySet())
+        install(name, modules, installed, new HashSet<>());
+
+      // the manifest of the deployment
+      var references = new TreeMap<String, String>();
+      for (var entry: installed.entrySet())
+        references.put(entry.getKey(), outcomeOf(entry.getValue()));
+
+      references.forEach((name, reference) -> System.out.println(name + ": " + reference));
+      System.out.println(modules.size() + " modules deployed in " + (System.currentTimeMillis() - start) + "ms");
+      System.out.println(jars);
+      System.out.println(gasPrices);
+      System.out.println(gas);
+    }
+    finally {
+      installers.shutdown();
+    }
+  }
+
+  /**
+   * Yields the future installation of the given module, after that of its dependencies.
+   *
+   * @param name the name of the module
+   * @param modules the modules to install
+   * @param installed the future installations of the modules, computed so far
+   * @param visiting the modules whose dependencies are being computed, to spot cycles
+   * @return the future reference to the installed jar of the module
+   */
+  private CompletableFuture<TransactionReference> install(String name, Map<String, Module> modules,
+      Map<String, CompletableFuture<TransactionReference>> installed, Set<String> visiting) {
+
+    CompletableFuture<TransactionReference> result = installed.get(name);
+    if (result != null)
+      return result;
+
+    Module module = modules.get(name);
+    if (module == null)
+      throw new IllegalArgumentException("Unknown module " + name);
+
+    if (!visiting.add(name))
+      throw new IllegalStateException("Module " + name + " depends on itself");
+
+    var dependencies = new ArrayList<CompletableFuture<TransactionReference>>();
+    for (String dependency: module.dependencies)
+      dependencies.add(install(dependency, modules, installed, visiting));
+
+    visiting.remove(name);
+
+    result = CompletableFuture.allOf(dependencies.toArray(CompletableFuture[]::new))
+      .thenApplyAsync(__ -> {
+        // the jar depends on the Takamaka runtime and on the jars of its dependencies
+        var classpath = new ArrayList<TransactionReference>();
+        classpath.add(takamakaCode);
+        dependencies.forEach(dependency -> classpath.add(dependency.join()));
+
+        try {
+          return installJar(module, classpath.toArray(TransactionReference[]::new));
+        }
+        catch (Exception e) {
+          throw new CompletionException(e);
+        }
+      }, installers);
+
+    installed.put(name, result);
+    return result;
+  }
+
+  private TransactionReference installJar(Module module, TransactionReference[] classpath) throws Exception {
+    int payer = Math.floorMod(nextPayer.getAndIncrement(), accounts.length);
+
+    return jars.install(module.jar, bytes -> {
+      System.out.println("Installing " + module.name);
+
+      return submitter.jarStore(accounts[payer], nonce -> TransactionRequests.jarStore
+        (signers.get(payer), accounts[payer], nonce, chainId, gas.limitForJar(bytes, _1_000_000), gasPrices.getSafeGasPrice(),
+        takamakaCode, bytes, classpath)).get();
+    }, classpath);
+  }
+
+  private static String outcomeOf(CompletableFuture<TransactionReference> installation) throws InterruptedException {
+    try {
+      return installation.get().toString();
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null)
+        cause = cause.getCause();
+
+      return "failed: " + cause;
+    }
+  }
+
+  /**
+   * Reads the tutorial modules inside the given directory, from their pom.xml files.
+   *
+   * @param dir the directory
+   * @param names the names of the modules to read, with their dependencies; all modules if empty
+   * @return the modules, by name
+   */
+  private static Map<String, Module> readModules(Path dir, List<String> names) throws Exception {
+    var all = new TreeMap<String, Module>();
+
+    try (Stream<Path> subdirs = Files.list(dir)) {
+      for (Path pom: subdirs.map(subdir -> subdir.resolve("pom.xml")).filter(Files::exists).toList()) {
+        Element project = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(pom.toFile()).getDocumentElement();
+        String artifactId = childText(project, "artifactId");
+        String version = childText(project, "version");
+        var dependencies = new ArrayList<String>();
+        boolean takamaka = false;
+
+        var nodes = project.getElementsByTagName("dependency");
+        for (int pos = 0; pos < nodes.getLength(); pos++) {
+          var dependency = (Element) nodes.item(pos);
+          String dependencyId = childText(dependency, "artifactId");
+          if (TAKAMAKA_CODE.equals(dependencyId))
+            takamaka = true;
+          else if (GROUP_ID.equals(childText(dependency, "groupId")))
+            dependencies.add(dependencyId);
+        }
+
+        // only modules of Takamaka code are installed in the node
+        if (takamaka && !EXCLUDED.contains(artifactId))
+          all.put(artifactId, new Module(artifactId, pom.resolveSibling("target").resolve(artifactId + "-" + version + ".jar"), dependencies));
+      }
+    }
+
+    if (names.isEmpty())
+      return all;
+
+    var selected = new TreeMap<String, Module>();
+    var toSelect = new ArrayList<>(names);
+    while (!toSelect.isEmpty()) {
+      String name = toSelect.remove(toSelect.size() - 1);
+      Module module = all.get(name);
+      if (module == null)
+        throw new IllegalArgumentException("Unknown module " + name);
+      else if (selected.put(name, module) == null)
+        toSelect.addAll(module.dependencies);
+    }
+
+    return selected;
+  }
+
+  private static String childText(Element element, String tag) {
+    var children = element.getChildNodes();
+    for (int pos = 0; pos < children.getLength(); pos++)
+      if (children.item(pos) instanceof Element child && tag.equals(child.getTagName()))
+        return child.getTextContent().trim();
+
+    return null;
+  }
+}
@@ -0,0 +1,227 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import io.hotmoka.node.api.Node;
+import io.hotmoka.node.api.TransactionRejectedException;
+import io.hotmoka.node.api.UnknownReferenceException;
+import io.hotmoka.node.api.responses.TransactionResponse;
+import io.hotmoka.node.api.responses.TransactionResponseWithEvents;
+import io.hotmoka.node.api.transactions.TransactionReference;
+import io.hotmoka.node.api.updates.Update;
+import io.hotmoka.node.api.updates.UpdateOfField;
+import io.hotmoka.node.api.values.StorageReference;
+
+/**
+ * A subscriber to the events of a contract that does not lose the events
+ * generated while the subscription was down. It keeps track of the transactions
+ * whose events are of interest and, on request, scans their responses
+ * from the last processed transaction, for the events that the subscription
+ * has not delivered. Each event reaches the handler only once, either from
+ * the subscription or from the scan. Only the events generated by the tracked
+ * transactions can be recovered: those generated by the transactions of other
+ * clients reach the handler only from the subscription. Processed transactions
+ * are forgotten, together with their delivered events. A scan can run while
+ * further transactions are being sent and tracked, such as after a resubscription.
+ */
+public class EventCatchUp implements BiConsumer<StorageReference, StorageReference> {
+  private final static String EVENT = "io.takamaka.code.lang.Event";
+
+  /**
+   * The maximal number of processed transactions that are remembered.
+   */
+  private final static int MAX_PROCESSED = 100_000;
+
+  private final StorageReference creator;
+  private final BiConsumer<StorageReference, StorageReference> handler;
+  private final StateCache states;
+
+  /**
+   * The transactions whose events are of interest and have not been processed yet, in order of tracking.
+   */
+  private final Set<TransactionReference> transactions = new LinkedHashSet<>();
+
+  /**
+   * The last transaction whose events have all been delivered, if any.
+   */
+  private TransactionReference lastProcessed;
+
+  /**
+   * The most recent transactions whose events have all been delivered. Their events are
+   * not kept in {@link #delivered}, hence later deliveries of their events from the
+   * subscription are recognized from their transaction.
+   */
+  private final Map<TransactionReference, Boolean> processed = new LinkedHashMap<>() {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<TransactionReference, Boolean> eldest) {
+      return size() > MAX_PROCESSED;
+    }
+  };
+
+  /**
+   * The events already delivered to the handler, whose transaction has not been processed yet.
+   */
+  private final Set<StorageReference> delivered = new HashSet<>();
+
+  /**
+   * The most recent events delivered from the subscription while their transaction was
+   * not tracked. These are the events of other clients, or of transactions that were
+   * about to be tracked, that a later scan must not deliver again.
+   */
+  private final Map<StorageReference, Boolean> untracked = new LinkedHashMap<>() {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<StorageReference, Boolean> eldest) {
+      return size() > MAX_PROCESSED;
+    }
+  };
+
+  private final AtomicLong live = new AtomicLong();
+  private final AtomicLong backfilled = new AtomicLong();
+
+  /**
+   * Creates a subscriber to the events of the given contract.
+   *
+   * @param creator the contract
+   * @param handler the handler of the events, that receives their creator and the event itself
+   * @param states the cache used to find the creator of the backfilled events
+   */
+  public EventCatchUp(StorageReference creator, BiConsumer<StorageReference, StorageReference> handler, StateCache states) {
+    this.creator = creator;
+    this.handler = handler;
+    this.states = states;
+  }
+
+  /**
+   * Takes note of a transaction, whose events must be delivered.
+   *
+   * @param transaction the transaction
+   */
+  public synchronized void track(TransactionReference transaction) {
+    transactions.add(transaction);
+  }
+
+  /**
+   * Delivers an event from the subscription, unless it has been delivered already.
+   *
+   * @param creator the creator of the event
+   * @param event the event
+   */
+  @Override
+  public void accept(StorageReference creator, StorageReference event) {
+    synchronized (this) {
+      var transaction = event.getTransaction();
+      if (processed.containsKey(transaction))
+        return;
+      else if (transactions.contains(transaction)) {
+        if (!delivered.add(event))
+          return;
+      }
+      else if (untracked.put(event, Boolean.TRUE) != null)
+        return;
+    }
+
+    live.incrementAndGet();
+    handler.accept(creator, event);
+  }
+
+  /**
+   * Yields the last transaction whose events have all been delivered.
+   *
+   * @return the transaction, if any
+   */
+  public synchronized Optional<TransactionReference> getLastProcessed() {
+    return Optional.ofNullable(lastProcessed);
+  }
+
+  /**
+   * Delivers the events of the tracked transactions, from the last processed one,
+   * that have not been delivered yet. This is typically called after a new
+   * subscription has replaced one that was down, or before the events of later
+   * transactions get handled, so that events reach the handler in order. The scan
+   * stops at the first transaction that has not been committed yet.
+   *
+   * @param node the node where the transactions have been sent
+   * @return the number of events delivered by this scan
+   */
+  public synchronized int catchUp(Node node) throws Exception {
+    int count = 0;
+
+    for (var it = transactions.iterator(); it.hasNext(); ) {
+      TransactionReference transaction = it.next();
+      TransactionResponse response;
+
+      try {
+        response = node.getResponse(transaction);
+      }
+      catch (UnknownReferenceException e) {
+        // not committed yet: later transactions are not scanned, to keep the order of the events
+        break;
+      }
+      catch (TransactionRejectedException e) {
+        // rejected transactions have no events
+        response = null;
+      }
+
+      if (response instanceof TransactionResponseWithEvents withEvents)
+        for (StorageReference event: withEvents.getEvents().toList())
+          if (creator.equals(creatorOf(event)) && !untracked.containsKey(event) && delivered.add(event)) {
+            backfilled.incrementAndGet();
+            handler.accept(creator, event);
+            count++;
+          }
+
+      it.remove();
+      lastProcessed = transaction;
+      processed.put(transaction, Boolean.TRUE);
+    }
+
+    // only the events of the transactions still to process can be delivered by a later scan;
+    // the others are recognized from their transaction
+    delivered.removeIf(event -> !transactions.contains(event.getTransaction()));
+
+    return count;
+  }
+
+  @Override
+  public String toString() {
+    return "event catch-up: " + live + " live events, " + backfilled + " backfilled events";
+  }
+
+  private StorageReference creatorOf(StorageReference event) throws Exception {
+    for (Update update: states.getImmutableState(event))
+      if (update instanceof UpdateOfField field && "creator".equals(field.getField().getName())
+          && EVENT.equals(field.getField().getDefiningClass().getName()))
+        return field.getValue().asReference(value -> new IllegalStateException("The creator of " + event + " is not a reference"));
+
+    throw new IllegalStateException("Event " + event + " has no creator");
+  }
+}
@@ -0,0 +1,216 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.hotmoka.node.api.values.StorageReference;
+
+/**
+ * A dispatcher of events, to be subscribed to a node in place of a slow handler.
+ * The subscription thread only enqueues the events, while the handler runs on
+ * a pool of workers. The events of the same creator are always dispatched
+ * to the same worker, hence they reach the handler in the order they were
+ * received. Each worker has a bounded queue: when it is full, the event is
+ * either dropped or the subscription thread waits, according to a policy.
+ */
+public class EventDispatcher implements BiConsumer<StorageReference, StorageReference>, AutoCloseable {
+  private final static Logger LOGGER = Logger.getLogger(EventDispatcher.class.getName());
+
+  /**
+   * What to do with an event whose queue is full.
+   */
+  public enum Policy {
+
+    /**
+     * The event is discarded.
+     */
+    DROP,
+
+    /**
+     * The subscription thread waits until there is room for the event.
+     */
+    BLOCK
+  }
+
+  private final BiConsumer<StorageReference, StorageReference> handler;
+  private final Policy policy;
+  private final List<BlockingQueue<Event>> queues = new ArrayList<>();
+  private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+
+  private final AtomicLong received = new AtomicLong();
+  private final AtomicLong dispatched = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong blocked = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  /**
+   * Marks the end of the events, for the workers.
+   */
+  private final static Event END = new Event(null, null);
+
+  private static class Event {
+    private final StorageReference creator;
+    private final StorageReference event;
+
+    private Event(StorageReference creator, StorageReference event) {
+      this.creator = creator;
+      this.event = event;
+    }
+  }
+
+  /**
+   * Creates a dispatcher of events.
+   *
+   * @param handler the handler of the events, that receives their creator and the event itself
+   * @param workers the number of workers that run the handler
+   * @param capacity the maximal number of events waiting for each worker
+   * @param policy what to do with an event whose queue is full
+   */
+  public EventDispatcher(BiConsumer<StorageReference, StorageReference> handler, int workers, int capacity, Policy policy) {
+    if (workers <= 0)
+      throw new IllegalArgumentException("The number of workers must be positive");
+
+    if (capacity <= 0)
+      throw new IllegalArgumentException("The capacity must be positive");
+
+    this.handler = handler;
+    this.policy = policy;
+
+    for (int i = 0; i < workers; i++) {
+      var queue = new ArrayBlockingQueue<Event>(capacity);
+      queues.add(queue);
+      this.workers.execute(() -> work(queue));
+    }
+  }
+
+  /**
+   * Enqueues an event. This is called by the subscription to the node.
+   *
+   * @param creator the creator of the event
+   * @param event the event
+   */
+  @Override
+  public void accept(StorageReference creator, StorageReference event) {
+    received.incrementAndGet();
+    var queue = queues.get(Math.floorMod(creator.hashCode(), queues.size()));
+    var element = new Event(creator, event);
+
+    if (queue.offer(element))
+      return;
+
+    if (policy == Policy.DROP) {
+      dropped.incrementAndGet();
+      return;
+    }
+
+    blocked.incrementAndGet();
+    try {
+      queue.put(element);
+    }
+    catch (InterruptedException e) {
+      dropped.incrementAndGet();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Yields the number of events received from the node.
+   *
+   * @return the number of events
+   */
+  public long getReceived() {
+    return received.get();
+  }
+
+  /**
+   * Yields the number of events passed to the handler.
+   *
+   * @return the number of events
+   */
+  public long getDispatched() {
+    return dispatched.get();
+  }
+
+  /**
+   * Yields the number of events discarded because their queue was full.
+   *
+   * @return the number of events
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Yields the number of times the subscription thread had to wait
+   * because the queue of an event was full.
+   *
+   * @return the number of waits
+   */
+  public long getBlocked() {
+    return blocked.get();
+  }
+
+  /**
+   * Waits until the events already enqueued have been dispatched
+   * and stops the workers.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    for (var queue: queues)
+      queue.put(END);
+
+    workers.close();
+  }
+
+  @Override
+  public String toString() {
+    return "event dispatcher: " + received + " received, " + dispatched + " dispatched, "
+      + dropped + " dropped, " + blocked + " blocked, " + failed + " failed";
+  }
+
+  private void work(BlockingQueue<Event> queue) {
+    try {
+      for (var element = queue.take(); element != END; element = queue.take()) {
+        try {
+          handler.accept(element.creator, element.event);
+        }
+        catch (RuntimeException e) {
+          // a failing handler must not stop the dispatch of the next events
+          failed.incrementAndGet();
+          LOGGER.log(Level.WARNING, "the handler of event " + element.event + " failed", e);
+        }
+
+        dispatched.incrementAndGet();
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,321 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import io.hotmoka.node.StorageValues;
+import io.hotmoka.node.api.updates.ClassTag;
+import io.hotmoka.node.api.updates.Update;
+import io.hotmoka.node.api.updates.UpdateOfField;
+import io.hotmoka.node.api.values.StorageReference;
+
+/**
+ * An append-only journal of the events seen by a client. The journal is a
+ * directory of segments, that are files of fixed size, mapped in memory.
+ * Each segment starts with a bloom filter over the creators and classes
+ * of its events, so that a query can skip the segments that cannot
+ * contain the events it is looking for.
+ */
+public class EventJournal implements AutoCloseable {
+  public final static int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+  private final static int MAGIC = 0x45564a31;
+  private final static int BLOOM_BITS = 64 * 1024;
+  private final static int BLOOM_HASHES = 3;
+
+  // the layout of the header of each segment
+  private final static int MAGIC_OFFSET = 0;
+  private final static int END_OFFSET = 4;
+  private final static int COUNT_OFFSET = 8;
+  private final static int BLOOM_OFFSET = 12;
+  private final static int HEADER_SIZE = BLOOM_OFFSET + BLOOM_BITS / 8;
+
+  private final Path dir;
+  private final int segmentSize;
+
+  /**
+   * The segments, from the oldest to the newest, where events are appended.
+   */
+  private final List<Segment> segments = new ArrayList<>();
+
+  /**
+   * An event in the journal.
+   *
+   * @param creator the contract that created the event
+   * @param event the event
+   * @param className the name of the class of the event
+   * @param fields the fields of the event, with their value
+   */
+  public record Entry(StorageReference creator, StorageReference event, String className, Map<String, String> fields) {
+
+    /**
+     * Describes an event, from its state.
+     *
+     * @param creator the contract that created the event
+     * @param event the event
+     * @param states the cache used to fetch the state of the event
+     * @return the description of the event
+     */
+    public static Entry of(StorageReference creator, StorageReference event, StateCache states) throws Exception {
+      String className = null;
+      Map<String, String> fields = new LinkedHashMap<>();
+
+      for (Update update: states.getImmutableState(event)) {
+        if (update instanceof ClassTag tag)
+          className = tag.getClazz().getName();
+        else if (update instanceof UpdateOfField field)
+          fields.put(field.getField().getName(), field.getValue().toString());
+      }
+
+      if (className == null)
+        throw new IllegalStateException("Event " + event + " has no class tag");
+
+      return new Entry(creator, event, className, Collections.unmodifiableMap(fields));
+    }
+  }
+
+  private static class Segment {
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private Segment(Path file, int size) throws IOException {
+      this.channel = FileChannel.open(file, CREATE, READ, WRITE);
+      boolean fresh = channel.size() == 0;
+      this.buffer = channel.map(MapMode.READ_WRITE, 0, size);
+
+      if (fresh) {
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(END_OFFSET, HEADER_SIZE);
+        buffer.putInt(COUNT_OFFSET, 0);
+      }
+      else if (buffer.getInt(MAGIC_OFFSET) != MAGIC)
+        throw new IOException(file + " is not a segment of an event journal");
+    }
+
+    private int end() {
+      return buffer.getInt(END_OFFSET);
+    }
+
+    private boolean mightContain(String key) {
+      long hash = hash(key);
+      for (int i = 0; i < BLOOM_HASHES; i++) {
+        int bit = bitOf(hash, i);
+        if ((buffer.get(BLOOM_OFFSET + bit / 8) & (1 << (bit % 8))) == 0)
+          return false;
+      }
+
+      return true;
+    }
+
+    private void add(String key) {
+      long hash = hash(key);
+      for (int i = 0; i < BLOOM_HASHES; i++) {
+        int bit = bitOf(hash, i);
+        int pos = BLOOM_OFFSET + bit / 8;
+        buffer.put(pos, (byte) (buffer.get(pos) | (1 << (bit % 8))));
+      }
+    }
+
+    private void close() throws IOException {
+      buffer.force();
+      channel.close();
+    }
+  }
+
+  /**
+   * Opens a journal in the given directory, with segments of default size.
+   * The events already in the directory are kept.
+   *
+   * @param dir the directory
+   */
+  public EventJournal(Path dir) throws IOException {
+    this(dir, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * Opens a journal in the given directory. The events already in the directory are kept.
+   *
+   * @param dir the directory
+   * @param segmentSize the size of each segment, in bytes
+   */
+  public EventJournal(Path dir, int segmentSize) throws IOException {
+    if (segmentSize <= HEADER_SIZE)
+      throw new IllegalArgumentException("Segments must be larger than " + HEADER_SIZE + " bytes");
+
+    this.dir = dir;
+    this.segmentSize = segmentSize;
+    Files.createDirectories(dir);
+
+    try (Stream<Path> files = Files.list(dir)) {
+      for (Path file: files.filter(file -> file.toString().endsWith(".segment")).sorted().toList())
+        segments.add(new Segment(file, segmentSize));
+    }
+
+    if (segments.isEmpty())
+      nextSegment();
+  }
+
+  /**
+   * Appends an event at the end of the journal.
+   *
+   * @param entry the event
+   */
+  public synchronized void append(Entry entry) throws IOException {
+    byte[] record = encode(entry);
+    if (HEADER_SIZE + record.length > segmentSize)
+      throw new IllegalArgumentException("Event " + entry.event + " does not fit in a segment");
+
+    Segment segment = segments.get(segments.size() - 1);
+    int end = segment.end();
+    if (end + record.length > segmentSize) {
+      segment.buffer.force();
+      segment = nextSegment();
+      end = segment.end();
+    }
+
+    segment.buffer.put(end, record);
+    segment.add(creatorKey(entry.creator));
+    segment.add(classKey(entry.className));
+    segment.buffer.putInt(COUNT_OFFSET, segment.buffer.getInt(COUNT_OFFSET) + 1);
+    // the record becomes visible only when the end of the segment moves past it
+    segment.buffer.putInt(END_OFFSET, end + record.length);
+  }
+
+  /**
+   * Scans the events in the journal, in order of appending.
+   *
+   * @param creator if present, only the events created by this contract are scanned
+   * @param className if present, only the events of this class are scanned
+   * @param action the action applied to each scanned event
+   */
+  public void scan(Optional<StorageReference> creator, Optional<String> className, Consumer<Entry> action) {
+    // the records below the end of a segment never change, hence
+    // they can be read outside the lock, from a view of the buffer
+    var views = new ArrayList<ByteBuffer>();
+    synchronized (this) {
+      for (Segment segment: segments)
+        if (creator.map(c -> segment.mightContain(creatorKey(c))).orElse(true)
+            && className.map(c -> segment.mightContain(classKey(c))).orElse(true))
+          views.add(segment.buffer.duplicate().position(HEADER_SIZE).limit(segment.end()));
+    }
+
+    for (ByteBuffer view: views)
+      while (view.hasRemaining()) {
+        Entry entry = decode(view);
+        if (creator.map(entry.creator::equals).orElse(true) && className.map(entry.className::equals).orElse(true))
+          action.accept(entry);
+      }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    for (Segment segment: segments)
+      segment.close();
+  }
+
+  private Segment nextSegment() throws IOException {
+    var segment = new Segment(dir.resolve(String.format("%08d.segment", segments.size())), segmentSize);
+    segments.add(segment);
+    return segment;
+  }
+
+  private static String creatorKey(StorageReference creator) {
+    return "creator:" + creator;
+  }
+
+  private static String classKey(String className) {
+    return "class:" + className;
+  }
+
+  /**
+   * A 64-bit FNV-1a hash, whose two halves are combined into the bits of the bloom filters.
+   */
+  private static long hash(String key) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b: key.getBytes(UTF_8)) {
+      hash ^= b;
+      hash *= 0x100000001b3L;
+    }
+
+    return hash;
+  }
+
+  private static int bitOf(long hash, int i) {
+    int h1 = (int) hash, h2 = (int) (hash >>> 32);
+    return Math.floorMod(h1 + i * h2, BLOOM_BITS);
+  }
+
+  private static byte[] encode(Entry entry) {
+    var strings = new ArrayList<byte[]>();
+    strings.add(entry.creator.toString().getBytes(UTF_8));
+    strings.add(entry.event.toString().getBytes(UTF_8));
+    strings.add(entry.className.getBytes(UTF_8));
+    entry.fields.forEach((name, value) -> {
+      strings.add(name.getBytes(UTF_8));
+      strings.add(value.getBytes(UTF_8));
+    });
+
+    int size = 4 + 4 + strings.stream().mapToInt(bytes -> 4 + bytes.length).sum();
+    var buffer = ByteBuffer.allocate(size);
+    buffer.putInt(size).putInt(entry.fields.size());
+    for (byte[] bytes: strings)
+      buffer.putInt(bytes.length).put(bytes);
+
+    return buffer.array();
+  }
+
+  private static Entry decode(ByteBuffer buffer) {
+    buffer.getInt(); // the size of the record
+    int fieldsCount = buffer.getInt();
+    StorageReference creator = StorageValues.reference(readString(buffer));
+    StorageReference event = StorageValues.reference(readString(buffer));
+    String className = readString(buffer);
+    var fields = new LinkedHashMap<String, String>();
+    for (int i = 0; i < fieldsCount; i++)
+      fields.put(readString(buffer), readString(buffer));
+
+    return new Entry(creator, event, className, Collections.unmodifiableMap(fields));
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    var bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+}
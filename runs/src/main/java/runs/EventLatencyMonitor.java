@@ -0,0 +1,197 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import io.hotmoka.node.api.transactions.TransactionReference;
+import io.hotmoka.node.api.values.StorageReference;
+
+/**
+ * A monitor of the time from the sending of a transaction to the delivery
+ * of the events that it generated. The time of commit is not a good reference,
+ * since the client sees it only when its polling for the outcome returns, often
+ * after the events have been delivered already. An event is created by the
+ * transaction in its storage reference, hence events are matched to the sending
+ * times of the transactions without querying the node. Latencies are kept
+ * separately for each class of events and creator.
+ */
+public class EventLatencyMonitor implements AutoCloseable {
+
+  /**
+   * The maximal number of transactions whose sending time is remembered.
+   */
+  private final static int MAX_TRANSACTIONS = 100_000;
+
+  private final StateCache states;
+
+  /**
+   * The local time of sending of the most recent transactions.
+   */
+  private final Map<TransactionReference, Long> sends = new LinkedHashMap<>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<TransactionReference, Long> eldest) {
+      return size() > MAX_TRANSACTIONS;
+    }
+  };
+
+  /**
+   * The local time of delivery of the events whose transaction has not been
+   * noted as sent yet, for each transaction. This happens if the events arrive
+   * before the sender gets back from posting the transaction.
+   */
+  private final Map<TransactionReference, List<Delivery>> early = new LinkedHashMap<>();
+
+  private final ConcurrentMap<String, LatencyStats> latencies = new ConcurrentHashMap<>();
+  private final AtomicLong unmatched = new AtomicLong();
+
+  private final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    var thread = new Thread(runnable, "event latency reporter");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private static class Delivery {
+    private final String key;
+    private final long time;
+
+    private Delivery(String key, long time) {
+      this.key = key;
+      this.time = time;
+    }
+  }
+
+  /**
+   * Creates a monitor of the latency of the events.
+   *
+   * @param states the cache used to find the class of the events
+   */
+  public EventLatencyMonitor(StateCache states) {
+    this.states = states;
+  }
+
+  /**
+   * Takes note that a transaction has been sent at the given time.
+   *
+   * @param transaction the transaction
+   * @param time the local time when the transaction was sent, taken before posting it
+   */
+  public void sent(TransactionReference transaction, long time) {
+    List<Delivery> deliveries;
+
+    synchronized (this) {
+      sends.put(transaction, time);
+      deliveries = early.remove(transaction);
+    }
+
+    // the events arrived before the sending was noted, but still after the transaction was sent
+    if (deliveries != null)
+      for (var delivery: deliveries)
+        statsOf(delivery.key).record(delivery.time - time);
+  }
+
+  /**
+   * Takes note that an event has been delivered now.
+   *
+   * @param creator the creator of the event
+   * @param event the event
+   */
+  public void delivered(StorageReference creator, StorageReference event) throws Exception {
+    long now = System.currentTimeMillis();
+    String key = states.getClassTag(event).getClazz() + " by " + creator;
+    TransactionReference transaction = event.getTransaction();
+    Long sent;
+
+    synchronized (this) {
+      sent = sends.get(transaction);
+      if (sent == null) {
+        if (early.size() < MAX_TRANSACTIONS)
+          early.computeIfAbsent(transaction, __ -> new ArrayList<>()).add(new Delivery(key, now));
+        else
+          unmatched.incrementAndGet();
+
+        return;
+      }
+    }
+
+    statsOf(key).record(now - sent);
+  }
+
+  /**
+   * Sends a report of the latencies to the given sink, periodically, until this monitor is closed.
+   *
+   * @param period the period of the report, in milliseconds
+   * @param sink the sink
+   */
+  public void reportEvery(long period, Consumer<String> sink) {
+    reporter.scheduleAtFixedRate(() -> sink.accept(toString()), period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Yields the latencies in CSV format, one line for each class of events and creator.
+   *
+   * @return the lines, starting with a header
+   */
+  public List<String> toCSV() {
+    var lines = new ArrayList<String>();
+    lines.add("events,count,p50,p90,p99,max");
+    new TreeMap<>(latencies).forEach((key, stats) -> lines.add(key + "," + stats.count() + "," + stats.percentile(50)
+      + "," + stats.percentile(90) + "," + stats.percentile(99) + "," + stats.percentile(100)));
+
+    return lines;
+  }
+
+  @Override
+  public void close() {
+    reporter.shutdownNow();
+  }
+
+  @Override
+  public String toString() {
+    var sb = new StringBuilder("send to delivery latency of the events:");
+    new TreeMap<>(latencies).forEach((key, stats) -> sb.append("\n  ").append(key).append(": ").append(stats));
+
+    synchronized (this) {
+      if (!early.isEmpty())
+        sb.append("\n  ").append(early.size()).append(" transactions with events delivered before their sending was noted");
+    }
+
+    if (unmatched.get() > 0)
+      sb.append("\n  ").append(unmatched).append(" events without a known transaction");
+
+    return sb.toString();
+  }
+
+  private LatencyStats statsOf(String key) {
+    return latencies.computeIfAbsent(key, __ -> new LatencyStats());
+  }
+}
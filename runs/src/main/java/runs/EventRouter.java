@@ -0,0 +1,239 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.hotmoka.closeables.api.OnCloseHandler;
+import io.hotmoka.node.api.Node;
+import io.hotmoka.node.api.Subscription;
+import io.hotmoka.node.api.values.StorageReference;
+
+/**
+ * A router of the events of many contracts, through a single subscription
+ * to all events of a node. Each event is passed to the handlers of its creator,
+ * found in a routing table that can be modified while events are routed.
+ * Hence the cost for the node does not grow with the number of watched contracts.
+ * If the node gets closed, for instance because its connection dropped, the router
+ * connects again and subscribes again, and then informs its listeners, that can
+ * recover the events lost in the meantime.
+ */
+public class EventRouter implements AutoCloseable {
+  public final static int RETRY_DELAY = 1_000; // in milliseconds, between attempts to subscribe again
+
+  private final static Logger LOGGER = Logger.getLogger(EventRouter.class.getName());
+
+  private final Connector connector;
+  private final ConcurrentMap<StorageReference, List<Route>> routes = new ConcurrentHashMap<>();
+  private final List<Runnable> resubscriptionListeners = new CopyOnWriteArrayList<>();
+  private final OnCloseHandler onClose = this::dropped;
+  private final AtomicLong routed = new AtomicLong();
+  private final AtomicLong ignored = new AtomicLong();
+  private final AtomicLong resubscriptions = new AtomicLong();
+
+  /**
+   * The node whose events are currently subscribed to. Guarded by this.
+   */
+  private Node node;
+
+  /**
+   * The current subscription to the events of {@link #node}. Guarded by this.
+   */
+  private Subscription subscription;
+
+  /**
+   * True if this router has been closed. Guarded by this.
+   */
+  private boolean closed;
+
+  /**
+   * A provider of the node whose events get routed.
+   */
+  public interface Connector {
+
+    /**
+     * Yields the node whose events get routed. It is called again
+     * whenever the node previously yielded gets closed.
+     *
+     * @return the node
+     */
+    Node connect() throws Exception;
+  }
+
+  /**
+   * A handler registered for a creator. Routes are compared by identity,
+   * so that the same handler can be registered more than once.
+   */
+  private static class Route {
+    private final BiConsumer<StorageReference, StorageReference> handler;
+
+    private Route(BiConsumer<StorageReference, StorageReference> handler) {
+      this.handler = handler;
+    }
+  }
+
+  /**
+   * Creates a router of the events of the nodes yielded by the given connector.
+   *
+   * @param connector the connector
+   */
+  public EventRouter(Connector connector) throws Exception {
+    this.connector = connector;
+    subscribe();
+  }
+
+  /**
+   * Routes the events of the given creator to the given handler,
+   * until the resulting subscription is closed.
+   *
+   * @param creator the creator of the events
+   * @param handler the handler of the events, that receives their creator and the event itself
+   * @return the subscription
+   */
+  public Subscription watch(StorageReference creator, BiConsumer<StorageReference, StorageReference> handler) {
+    var route = new Route(handler);
+
+    routes.compute(creator, (__, old) -> {
+      List<Route> list = old == null ? new CopyOnWriteArrayList<>() : old;
+      list.add(route);
+      return list;
+    });
+
+    return () -> routes.computeIfPresent(creator, (__, list) -> {
+      list.remove(route);
+      return list.isEmpty() ? null : list;
+    });
+  }
+
+  /**
+   * Runs the given listener each time this router subscribes again,
+   * after its node was closed. The events generated in the meantime are lost.
+   *
+   * @param listener the listener
+   */
+  public void onResubscription(Runnable listener) {
+    resubscriptionListeners.add(listener);
+  }
+
+  /**
+   * Yields the number of events passed to some handler.
+   *
+   * @return the number of events
+   */
+  public long getRouted() {
+    return routed.get();
+  }
+
+  /**
+   * Yields the number of events whose creator is not watched.
+   *
+   * @return the number of events
+   */
+  public long getIgnored() {
+    return ignored.get();
+  }
+
+  @Override
+  public synchronized void close() {
+    if (!closed) {
+      closed = true;
+      node.removeOnCloseHandler(onClose);
+      subscription.close();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "event router: " + routes.size() + " watched creators, " + routed + " routed events, "
+      + ignored + " ignored events, " + resubscriptions + " resubscriptions";
+  }
+
+  /**
+   * Subscribes to the events of a node yielded by the connector, unless this router has been closed.
+   *
+   * @return true if and only if the subscription has been performed
+   */
+  private synchronized boolean subscribe() throws Exception {
+    if (closed)
+      return false;
+
+    var node = connector.connect();
+    // a null creator subscribes to the events of every creator
+    this.subscription = node.subscribeToEvents(null, this::route);
+    node.addOnCloseHandler(onClose);
+    this.node = node;
+    return true;
+  }
+
+  /**
+   * Called when the node of the subscription gets closed.
+   */
+  private void dropped() {
+    synchronized (this) {
+      if (closed)
+        return;
+    }
+
+    // the node is being closed by this thread, hence the new subscription is performed by another
+    Thread.ofVirtual().name("event router resubscription").start(this::resubscribe);
+  }
+
+  private void resubscribe() {
+    try {
+      while (true) {
+        Thread.sleep(RETRY_DELAY);
+
+        try {
+          if (!subscribe())
+            return;
+
+          break;
+        }
+        catch (Exception e) {
+          LOGGER.log(Level.WARNING, "cannot subscribe again to the events: retrying", e);
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    resubscriptions.incrementAndGet();
+    resubscriptionListeners.forEach(Runnable::run);
+  }
+
+  private void route(StorageReference creator, StorageReference event) {
+    List<Route> list = routes.get(creator);
+    if (list == null)
+      ignored.incrementAndGet();
+    else {
+      routed.incrementAndGet();
+      for (Route route: list)
+        route.handler.accept(creator, event);
+    }
+  }
+}
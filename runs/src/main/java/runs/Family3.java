@@ -30,7 +30,6 @@ import java.security.KeyPair;
 
 import io.hotmoka.crypto.api.SignatureAlgorithm;
 import io.hotmoka.crypto.api.Signer;
-import io.hotmoka.helpers.GasHelpers;
 import io.hotmoka.helpers.SignatureHelpers;
 import io.hotmoka.node.Accounts;
 import io.hotmoka.node.ConstructorSignatures;
@@ -65,7 +64,9 @@ public class Family3 {
     // the path of the user jar to install
     var familyPath = Paths.get("../family_exported/target/family_exported-0.0.1.jar");
 
-    try (var node = RemoteNodes.of(URI.create("ws://panarea.hotmoka.io"), 20000)) {
+    try (var node = RemoteNodes.of(URI.create("ws://panarea.hotmoka.io"), 20000);
+         // the gas price is read from memory and refreshed in the background
+         var gasPrices = new GasPriceCache(node, 10_000, 0)) {
     	// we get a reference to where io-takamaka-code-X.Y.Z.jar has been stored
         TransactionReference takamakaCode = node.getTakamakaCode();
         StorageReference manifest = node.getManifest();
@@ -102,8 +103,6 @@ public class Family3 {
              manifest)).get() // receiver of the method call
            .asString(__ -> new ClassCastException());
 
-        var gasHelper = GasHelpers.of(node);
-
         // we install family-0.0.1-SNAPSHOT.jar in the node: our account will pay
         TransactionReference family = node
           .addJarStoreTransaction(TransactionRequests.jarStore
@@ -112,7 +111,7 @@ public class Family3 {
             nonce, // payer's nonce: relevant since this is not a call to a @View method!
             chainId, // chain identifier: relevant since this is not a call to a @View method!
             BigInteger.valueOf(300_000), // gas limit: enough for this very small jar
-            gasHelper.getSafeGasPrice(), // gas price: at least the current gas price of the network
+            gasPrices.getSafeGasPrice(), // gas price: at least the current gas price of the network
             takamakaCode, // class path for the execution of the transaction
             Files.readAllBytes(familyPath), // bytes of the jar to install
             takamakaCode)); // dependencies of the jar that is being installed
@@ -129,7 +128,7 @@ public class Family3 {
             nonce, // payer's nonce: relevant since this is not a call to a @View method!
             chainId, // chain identifier: relevant since this is not a call to a @View method!
             BigInteger.valueOf(50_000), // gas limit: enough for a small object
-            panarea(gasHelper.getSafeGasPrice()), // gas price, in panareas
+            panarea(gasPrices.getSafeGasPrice()), // gas price, in panareas
             family, // class path for the execution of the transaction
 
             // constructor Person(String,int,int,int)
@@ -151,7 +150,7 @@ public class Family3 {
              nonce, // payer's nonce: relevant since this is not a call to a @View method!
              chainId, // chain identifier: relevant since this is not a call to a @View method!
              BigInteger.valueOf(50_000), // gas limit: enough for a small object
-             panarea(gasHelper.getSafeGasPrice()), // gas price, in panareas
+             panarea(gasPrices.getSafeGasPrice()), // gas price, in panareas
              family, // class path for the execution of the transaction
 
       	     // method to call: String Person.toString()
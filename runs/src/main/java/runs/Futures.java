@@ -0,0 +1,50 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Utilities about futures.
+ */
+final class Futures {
+
+  private Futures() {}
+
+  /**
+   * Waits for the value of the given future. If its computation failed, this
+   * throws the exception of the failure, instead of wrapping it.
+   *
+   * @param <T> the type of the value
+   * @param future the future
+   * @return the value of the future
+   */
+  static <T> T get(Future<T> future) throws Exception {
+    try {
+      return future.get();
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception cause)
+        throw cause;
+      else
+        throw e;
+    }
+  }
+}
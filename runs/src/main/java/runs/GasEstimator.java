@@ -0,0 +1,321 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import io.hotmoka.node.api.Node;
+import io.hotmoka.node.api.TransactionRejectedException;
+import io.hotmoka.node.api.UnknownReferenceException;
+import io.hotmoka.node.api.requests.CodeExecutionTransactionRequest;
+import io.hotmoka.node.api.requests.JarStoreTransactionRequest;
+import io.hotmoka.node.api.requests.NonInitialTransactionRequest;
+import io.hotmoka.node.api.responses.FailedTransactionResponse;
+import io.hotmoka.node.api.responses.NonInitialTransactionResponse;
+import io.hotmoka.node.api.signatures.CodeSignature;
+import io.hotmoka.node.api.transactions.TransactionReference;
+import io.hotmoka.node.api.values.StorageReference;
+import io.hotmoka.node.api.values.StorageValue;
+
+/**
+ * An estimator of the gas limit of the transactions. It learns the gas
+ * consumed by the successful transactions, separately for each constructor
+ * or method and for each class of size of the actual arguments (or of the
+ * installed jar). Constructors and methods whose consumption grows with the
+ * state of their caller, such as the bids it has stored, are further separated
+ * by the class of size of that load. The limit of a transaction is the largest
+ * consumption seen for its class, increased by a headroom; until a class has
+ * been seen, a given fallback limit is used. A transaction that ran out of gas
+ * doubles the limit of its class, while other failed transactions are ignored,
+ * since they stop early. What has been learned can be kept in a file, across runs.
+ * The responses of the transactions are fetched in background, hence learning
+ * does not slow down who sends the transactions.
+ */
+public class GasEstimator implements AutoCloseable {
+  public final static int MAX_PENDING = 64; // maximal number of transactions waiting to be learned
+
+  private final static Logger LOGGER = Logger.getLogger(GasEstimator.class.getName());
+
+  private final Node node;
+  private final Optional<Path> file;
+
+  /**
+   * The headroom added to the largest consumption, as a percentage.
+   */
+  private final int headroom;
+
+  /**
+   * The largest consumption seen for each class of transactions.
+   */
+  private final ConcurrentMap<String, AtomicLong> consumptions = new ConcurrentHashMap<>();
+
+  /**
+   * The load of the callers, for the constructors and methods whose consumption grows with it.
+   */
+  private final ConcurrentMap<CodeSignature, ToIntFunction<StorageReference>> loads = new ConcurrentHashMap<>();
+
+  /**
+   * The executor that fetches the responses of the transactions to learn.
+   */
+  private final ExecutorService learners = Executors.newVirtualThreadPerTaskExecutor();
+
+  /**
+   * The permits for the transactions waiting to be learned.
+   */
+  private final Semaphore pending = new Semaphore(MAX_PENDING);
+
+  private final AtomicLong learned = new AtomicLong();
+  private final AtomicLong outOfGas = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+
+  /**
+   * Creates an estimator of the gas limit of the transactions sent to the given node.
+   *
+   * @param node the node
+   * @param headroom the headroom added to the largest consumption, as a percentage
+   * @param file the file where the learned consumptions are kept, if any; it is created if missing
+   *             and it gets updated when this estimator is closed
+   */
+  public GasEstimator(Node node, int headroom, Optional<Path> file) throws IOException {
+    if (headroom < 0)
+      throw new IllegalArgumentException("The headroom cannot be negative");
+
+    this.node = node;
+    this.headroom = headroom;
+    this.file = file;
+
+    if (file.isPresent() && Files.exists(file.get())) {
+      var properties = new Properties();
+      try (var reader = Files.newBufferedReader(file.get())) {
+        properties.load(reader);
+      }
+
+      for (String key: properties.stringPropertyNames())
+        consumptions.put(key, new AtomicLong(Long.parseLong(properties.getProperty(key))));
+    }
+  }
+
+  /**
+   * Yields the gas limit for a call to the given constructor or method.
+   *
+   * @param target the constructor or method
+   * @param fallback the limit used if the estimator has not learned anything about this call yet
+   * @param actuals the actual arguments of the call, receiver excluded
+   * @return the gas limit
+   */
+  public BigInteger limitFor(CodeSignature target, BigInteger fallback, StorageValue... actuals) {
+    return limitFor(keyOf(target, Stream.of(actuals)), fallback);
+  }
+
+  /**
+   * Yields the gas limit for a call to the given constructor or method, from the given caller.
+   * This is needed for the constructors and methods whose consumption depends on a load.
+   *
+   * @param target the constructor or method
+   * @param caller the caller
+   * @param fallback the limit used if the estimator has not learned anything about this call yet
+   * @param actuals the actual arguments of the call, receiver excluded
+   * @return the gas limit
+   */
+  public BigInteger limitFor(CodeSignature target, StorageReference caller, BigInteger fallback, StorageValue... actuals) {
+    return limitFor(keyOf(target, caller, Stream.of(actuals)), fallback);
+  }
+
+  /**
+   * Declares that the consumption of the given constructor or method grows with a load
+   * that depends on its caller, such as the number of bids stored for the caller. The load
+   * of a caller must not change between the estimation of the limit of a call and its commit.
+   *
+   * @param target the constructor or method
+   * @param load yields the load of each caller
+   */
+  public void dependsOnLoad(CodeSignature target, ToIntFunction<StorageReference> load) {
+    loads.put(target, load);
+  }
+
+  /**
+   * Yields the gas limit for the installation of the given jar.
+   *
+   * @param jar the bytes of the jar
+   * @param fallback the limit used if the estimator has not learned anything about such jars yet
+   * @return the gas limit
+   */
+  public BigInteger limitForJar(byte[] jar, BigInteger fallback) {
+    return limitFor(keyOf(jar.length), fallback);
+  }
+
+  /**
+   * Learns the gas consumed by a committed transaction. Nothing is learned from
+   * requests that are neither code executions nor jar installations, nor from
+   * transactions whose response cannot be found, nor from failed transactions,
+   * unless they ran out of gas. This method does not wait for the response of the
+   * transaction: it is fetched later, unless already {@link #MAX_PENDING} transactions
+   * are waiting for it, in which case the transaction is skipped.
+   *
+   * @param request the request of the transaction
+   * @param transaction the reference to the transaction
+   */
+  public void learn(NonInitialTransactionRequest<?> request, TransactionReference transaction) {
+    String key;
+    // the key is computed now, since the load of the caller might change later
+    if (request instanceof CodeExecutionTransactionRequest<?> execution)
+      key = keyOf(execution.getStaticTarget(), execution.getCaller(), execution.actuals());
+    else if (request instanceof JarStoreTransactionRequest jarStore)
+      key = keyOf(jarStore.getJarLength());
+    else
+      return;
+
+    if (!pending.tryAcquire()) {
+      skipped.incrementAndGet();
+      return;
+    }
+
+    try {
+      learners.execute(() -> {
+        try {
+          learn(key, request, transaction);
+        }
+        finally {
+          pending.release();
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      // this estimator has been closed already
+      pending.release();
+      skipped.incrementAndGet();
+    }
+  }
+
+  private void learn(String key, NonInitialTransactionRequest<?> request, TransactionReference transaction) {
+    long consumed;
+
+    try {
+      if (!(node.getResponse(transaction) instanceof NonInitialTransactionResponse response))
+        return;
+
+      if (response instanceof FailedTransactionResponse failed) {
+        // a transaction that failed for other reasons stopped early: its consumption
+        // underestimates that of the successful transactions of its class
+        if (!failed.getClassNameOfCause().endsWith("OutOfGasError"))
+          return;
+
+        // the consumption is unknown, but larger than the limit
+        outOfGas.incrementAndGet();
+        consumed = request.getGasLimit().longValueExact() * 2 * 100 / (100 + headroom);
+      }
+      else
+        consumed = response.getGasConsumedForCPU().add(response.getGasConsumedForRAM())
+          .add(response.getGasConsumedForStorage()).longValueExact();
+    }
+    catch (UnknownReferenceException | TransactionRejectedException e) {
+      return;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    catch (Exception e) {
+      // learning is only an optimization
+      LOGGER.log(Level.WARNING, "cannot learn the consumption of " + transaction, e);
+      return;
+    }
+
+    learned.incrementAndGet();
+    consumptions.computeIfAbsent(key, __ -> new AtomicLong()).accumulateAndGet(consumed, Math::max);
+  }
+
+  @Override
+  public void close() throws IOException {
+    // waits for the transactions still to learn
+    learners.close();
+
+    if (file.isEmpty())
+      return;
+
+    var properties = new Properties();
+    consumptions.forEach((key, consumed) -> properties.setProperty(key, String.valueOf(consumed.get())));
+
+    // the file is replaced atomically, so that it is never seen half written
+    Path parent = file.get().toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path temp = Files.createTempFile(parent, "gas", ".tmp");
+
+    try (var writer = Files.newBufferedWriter(temp)) {
+      properties.store(writer, "largest gas consumption of each class of transactions");
+    }
+
+    Files.move(temp, file.get(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @Override
+  public String toString() {
+    var sb = new StringBuilder("gas estimator: " + learned + " learned transactions, " + outOfGas + " out of gas, " + skipped + " skipped");
+    new TreeMap<>(consumptions).forEach((key, consumed) -> sb.append("\n  ").append(key).append(": ").append(consumed));
+    return sb.toString();
+  }
+
+  private BigInteger limitFor(String key, BigInteger fallback) {
+    AtomicLong consumed = consumptions.get(key);
+    if (consumed == null)
+      return fallback;
+    else
+      return BigInteger.valueOf(consumed.get()).multiply(BigInteger.valueOf(100 + headroom)).divide(BigInteger.valueOf(100)).add(BigInteger.ONE);
+  }
+
+  private static String keyOf(CodeSignature target, Stream<StorageValue> actuals) {
+    long size = actuals.mapToLong(actual -> actual.toString().length()).sum();
+    return target + " with actuals of class " + sizeClassOf(size);
+  }
+
+  private String keyOf(CodeSignature target, StorageReference caller, Stream<StorageValue> actuals) {
+    ToIntFunction<StorageReference> load = loads.get(target);
+    String key = keyOf(target, actuals);
+    return load == null ? key : key + " and load of class " + sizeClassOf(load.applyAsInt(caller));
+  }
+
+  private static String keyOf(int jarLength) {
+    return "jar of class " + sizeClassOf(jarLength);
+  }
+
+  /**
+   * Yields the class of the given size: sizes in the same class differ by less than a factor of two.
+   */
+  private static int sizeClassOf(long size) {
+    return 64 - Long.numberOfLeadingZeros(size);
+  }
+}
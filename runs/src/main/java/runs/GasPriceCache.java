@@ -0,0 +1,163 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import java.math.BigInteger;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.hotmoka.helpers.GasHelpers;
+import io.hotmoka.helpers.api.GasHelper;
+import io.hotmoka.node.api.Node;
+
+/**
+ * A cache of the safe gas price of a node. The price is refreshed
+ * in the background, so that the drivers can read it from memory,
+ * without a round-trip to the node for each request.
+ */
+public class GasPriceCache implements AutoCloseable {
+  private final static Logger LOGGER = Logger.getLogger(GasPriceCache.class.getName());
+
+  private final GasHelper gasHelper;
+
+  /**
+   * The time, in milliseconds, after which a cached price is not used anymore.
+   */
+  private final long ttl;
+
+  /**
+   * The percentage added on top of the safe gas price of the node.
+   */
+  private final int headroom;
+
+  private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    var thread = new Thread(runnable, "gas price refresher");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * The last price fetched from the node, or null if none has been fetched yet.
+   */
+  private volatile Price last;
+
+  private static class Price {
+    private final BigInteger value;
+    private final long fetched;
+
+    private Price(BigInteger value, long fetched) {
+      this.value = value;
+      this.fetched = fetched;
+    }
+  }
+
+  /**
+   * Creates a cache of the safe gas price of the given node.
+   * The price is refreshed in the background twice per {@code ttl}.
+   *
+   * @param node the node
+   * @param ttl the time, in milliseconds, after which a cached price is not used anymore
+   * @param headroom the percentage added on top of the safe gas price of the node
+   */
+  public GasPriceCache(Node node, long ttl, int headroom) throws Exception {
+    if (ttl <= 1)
+      throw new IllegalArgumentException("The time to live must be larger than 1");
+
+    if (headroom < 0)
+      throw new IllegalArgumentException("The headroom cannot be negative");
+
+    this.gasHelper = GasHelpers.of(node);
+    this.ttl = ttl;
+    this.headroom = headroom;
+    refresher.scheduleWithFixedDelay(this::refresh, 0L, ttl / 2, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Yields the safe gas price of the node, increased by the headroom.
+   * This is taken from memory, unless the cached price is too old.
+   *
+   * @return the gas price
+   */
+  public BigInteger getSafeGasPrice() throws Exception {
+    Price price = last;
+    if (price != null && System.currentTimeMillis() - price.fetched <= ttl) {
+      hits.incrementAndGet();
+      return price.value;
+    }
+
+    misses.incrementAndGet();
+    return fetch().value;
+  }
+
+  /**
+   * Yields the number of requests served from memory.
+   *
+   * @return the number of hits
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Yields the number of requests that had to query the node.
+   *
+   * @return the number of misses
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  @Override
+  public void close() {
+    refresher.shutdownNow();
+  }
+
+  @Override
+  public String toString() {
+    return "gas price cache: " + hits + " hits, " + misses + " misses";
+  }
+
+  private void refresh() {
+    try {
+      fetch();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    catch (Exception e) {
+      // the next request will query the node, if the cached price gets too old
+      LOGGER.log(Level.WARNING, "cannot refresh the gas price", e);
+    }
+  }
+
+  private Price fetch() throws Exception {
+    var value = gasHelper.getSafeGasPrice()
+      .multiply(BigInteger.valueOf(100 + headroom)).divide(BigInteger.valueOf(100));
+    var price = new Price(value, System.currentTimeMillis());
+    last = price;
+    return price;
+  }
+}
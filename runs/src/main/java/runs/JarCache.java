@@ -0,0 +1,165 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.hotmoka.node.TransactionReferences;
+import io.hotmoka.node.api.Node;
+import io.hotmoka.node.api.TransactionRejectedException;
+import io.hotmoka.node.api.UnknownReferenceException;
+import io.hotmoka.node.api.responses.JarStoreTransactionSuccessfulResponse;
+import io.hotmoka.node.api.transactions.TransactionReference;
+
+/**
+ * A cache of the jars already installed in the nodes. A jar is identified by
+ * the SHA-256 hash of its bytes, of its dependencies and of the manifest of
+ * the node where it is installed. Hence a jar is installed again only if its
+ * bytes change, if it gets installed with other dependencies or if the node
+ * is a different one. Before being reused, a cached installation is checked
+ * to be a successful jar store transaction of the node, which costs no gas.
+ * The cache can be kept in a properties file, across runs.
+ */
+public class JarCache {
+  private final Node node;
+  private final Optional<Path> file;
+  private final Properties installed = new Properties();
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+
+  /**
+   * The installation of a jar in the node, that is only performed
+   * if the jar has not been installed already.
+   */
+  public interface Installer {
+
+    /**
+     * Installs the given jar in the node.
+     *
+     * @param bytes the bytes of the jar
+     * @return the transaction that installed the jar
+     */
+    TransactionReference install(byte[] bytes) throws Exception;
+  }
+
+  /**
+   * Creates a cache of the jars installed in the given node.
+   *
+   * @param node the node
+   * @param file the file where the cache is kept, if any; it is created if missing
+   */
+  public JarCache(Node node, Optional<Path> file) throws IOException {
+    this.node = node;
+    this.file = file;
+
+    if (file.isPresent() && Files.exists(file.get()))
+      try (var reader = Files.newBufferedReader(file.get())) {
+        installed.load(reader);
+      }
+  }
+
+  /**
+   * Yields the transaction that installed the given jar in the node,
+   * installing the jar only if that never happened before.
+   *
+   * @param jar the jar
+   * @param installer the installation of the jar, run if the jar was not installed yet
+   * @param dependencies the dependencies of the jar
+   * @return the transaction that installed the jar
+   */
+  public TransactionReference install(Path jar, Installer installer, TransactionReference... dependencies) throws Exception {
+    byte[] bytes = Files.readAllBytes(jar);
+    String key = keyOf(bytes, dependencies);
+    String cached;
+
+    synchronized (installed) {
+      cached = installed.getProperty(key);
+    }
+
+    if (cached != null) {
+      TransactionReference reference = TransactionReferences.of(cached);
+      if (isInstalled(reference)) {
+        hits.incrementAndGet();
+        return reference;
+      }
+    }
+
+    misses.incrementAndGet();
+    TransactionReference reference = installer.install(bytes);
+
+    synchronized (installed) {
+      installed.setProperty(key, reference.toString());
+      store();
+    }
+
+    return reference;
+  }
+
+  @Override
+  public String toString() {
+    return "jar cache: " + hits + " reused jars, " + misses + " installed jars";
+  }
+
+  private String keyOf(byte[] bytes, TransactionReference[] dependencies) throws Exception {
+    var digest = MessageDigest.getInstance("SHA-256");
+    digest.update(bytes);
+    for (var dependency: dependencies)
+      digest.update(dependency.toString().getBytes(UTF_8));
+
+    digest.update(node.getManifest().toString().getBytes(UTF_8));
+
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  private boolean isInstalled(TransactionReference reference) throws Exception {
+    try {
+      return node.getResponse(reference) instanceof JarStoreTransactionSuccessfulResponse;
+    }
+    catch (UnknownReferenceException | TransactionRejectedException e) {
+      // the node has been reset or the jar was never installed
+      return false;
+    }
+  }
+
+  private void store() throws IOException {
+    if (file.isEmpty())
+      return;
+
+    // the file is replaced atomically, so that it is never seen half written
+    Path parent = file.get().toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path temp = Files.createTempFile(parent, "jars", ".tmp");
+
+    try (var writer = Files.newBufferedWriter(temp)) {
+      installed.store(writer, "jars installed in the nodes");
+    }
+
+    Files.move(temp, file.get(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
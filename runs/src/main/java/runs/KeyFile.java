@@ -0,0 +1,197 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.PrivateKey;
+import java.util.List;
+
+import io.hotmoka.crypto.SignatureAlgorithms;
+import io.hotmoka.crypto.api.SignatureAlgorithm;
+import io.hotmoka.node.StorageValues;
+import io.hotmoka.node.TransactionReferences;
+import io.hotmoka.node.api.transactions.TransactionReference;
+import io.hotmoka.node.api.values.StorageReference;
+
+/**
+ * A compact file of accounts with their private key, that is mapped in memory
+ * when read. All records have the same size, hence the account at a given
+ * position is found without reading the previous ones and even very many
+ * accounts are read lazily, only when used.
+ */
+public class KeyFile {
+  private final static int MAGIC = 0x4b455931;
+  private final static int NAME_SIZE = 32;
+  private final static int HASH_LENGTH = TransactionReference.REQUEST_HASH_LENGTH;
+
+  // the layout of the header
+  private final static int MAGIC_OFFSET = 0;
+  private final static int COUNT_OFFSET = 4;
+  private final static int KEY_LENGTH_OFFSET = 8;
+  private final static int NAME_LENGTH_OFFSET = 12;
+  private final static int NAME_OFFSET = 16;
+  private final static int HEADER_SIZE = NAME_OFFSET + NAME_SIZE;
+
+  private final MappedByteBuffer buffer;
+  private final SignatureAlgorithm signature;
+  private final int count;
+  private final int keyLength;
+
+  /**
+   * Opens a file of accounts, mapping it in memory.
+   *
+   * @param file the file
+   */
+  public KeyFile(Path file) throws Exception {
+    try (var channel = FileChannel.open(file, READ)) {
+      // the mapping remains valid after the channel is closed
+      this.buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(MAGIC_OFFSET) != MAGIC)
+      throw new IOException(file + " is not a key file");
+
+    this.count = buffer.getInt(COUNT_OFFSET);
+    this.keyLength = buffer.getInt(KEY_LENGTH_OFFSET);
+    var name = new byte[buffer.getInt(NAME_LENGTH_OFFSET)];
+    buffer.get(NAME_OFFSET, name);
+    this.signature = SignatureAlgorithms.of(new String(name, US_ASCII));
+
+    if (buffer.capacity() < HEADER_SIZE + (long) count * recordSize(keyLength))
+      throw new IOException(file + " is truncated");
+  }
+
+  /**
+   * Writes a file of accounts. The file is replaced atomically, hence it is never seen half written.
+   *
+   * @param file the file
+   * @param signature the signature algorithm of the accounts
+   * @param accounts the accounts
+   * @param keys the private keys of the accounts, in the same order
+   */
+  public static void write(Path file, SignatureAlgorithm signature, List<StorageReference> accounts, List<PrivateKey> keys) throws Exception {
+    if (accounts.size() != keys.size())
+      throw new IllegalArgumentException("There must be a key for each account");
+
+    byte[] name = signature.getName().getBytes(US_ASCII);
+    if (name.length > NAME_SIZE)
+      throw new IllegalArgumentException("The name of the signature algorithm is too long");
+
+    var encodings = new byte[keys.size()][];
+    for (int pos = 0; pos < encodings.length; pos++) {
+      encodings[pos] = signature.encodingOf(keys.get(pos));
+      if (encodings[pos].length != encodings[0].length)
+        throw new IllegalArgumentException("The keys must have all the same length");
+    }
+
+    int keyLength = encodings.length == 0 ? 0 : encodings[0].length;
+    Path parent = file.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path temp = Files.createTempFile(parent, "keys", ".tmp");
+
+    try (var channel = FileChannel.open(temp, WRITE)) {
+      var header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC_OFFSET, MAGIC);
+      header.putInt(COUNT_OFFSET, accounts.size());
+      header.putInt(KEY_LENGTH_OFFSET, keyLength);
+      header.putInt(NAME_LENGTH_OFFSET, name.length);
+      header.put(NAME_OFFSET, name);
+      channel.write(header);
+
+      var record = ByteBuffer.allocate(recordSize(keyLength));
+      for (int pos = 0; pos < encodings.length; pos++) {
+        StorageReference account = accounts.get(pos);
+        record.clear();
+        record.put(account.getTransaction().getHash());
+        record.putInt(account.getProgressive().intValueExact());
+        record.put(encodings[pos]);
+        record.flip();
+        channel.write(record);
+      }
+    }
+
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Yields the number of accounts in this file.
+   *
+   * @return the number of accounts
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Yields the signature algorithm of the accounts in this file.
+   *
+   * @return the signature algorithm
+   */
+  public SignatureAlgorithm getSignature() {
+    return signature;
+  }
+
+  /**
+   * Yields the account at the given position.
+   *
+   * @param pos the position
+   * @return the account
+   */
+  public StorageReference account(int pos) {
+    var hash = new byte[HASH_LENGTH];
+    int offset = offsetOf(pos);
+    buffer.get(offset, hash);
+    return StorageValues.reference(TransactionReferences.of(hash), BigInteger.valueOf(buffer.getInt(offset + HASH_LENGTH)));
+  }
+
+  /**
+   * Yields the private key of the account at the given position.
+   *
+   * @param pos the position
+   * @return the private key
+   */
+  public PrivateKey privateKey(int pos) throws Exception {
+    var encoding = new byte[keyLength];
+    buffer.get(offsetOf(pos) + HASH_LENGTH + 4, encoding);
+    return signature.privateKeyFromEncoding(encoding);
+  }
+
+  private int offsetOf(int pos) {
+    if (pos < 0 || pos >= count)
+      throw new IndexOutOfBoundsException(pos);
+
+    return HEADER_SIZE + pos * recordSize(keyLength);
+  }
+
+  private static int recordSize(int keyLength) {
+    return HASH_LENGTH + 4 + keyLength;
+  }
+}
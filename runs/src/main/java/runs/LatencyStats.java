@@ -0,0 +1,115 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A collection of latency samples, in milliseconds, with their percentiles.
+ * Samples are counted in the buckets of a log-linear histogram: latencies below
+ * 2^{@link #PRECISION} milliseconds have a bucket each, while larger latencies
+ * share buckets whose width is at most 2^-{@link #PRECISION} of their values.
+ * Hence memory does not grow with the samples and percentiles are read from
+ * the counts, at the cost of that relative error. Samples can be recorded concurrently.
+ */
+public class LatencyStats {
+  public final static int PRECISION = 5; // bits of each sample that select its bucket, besides the leading one
+
+  private final static int LINEAR = 1 << (PRECISION + 1); // samples below this have a bucket each
+  private final static int BUCKETS = LINEAR + (Long.SIZE - 2 - PRECISION) * (LINEAR / 2);
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong size = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records a sample. Negative samples are recorded as 0.
+   *
+   * @param millis the latency, in milliseconds
+   */
+  public void record(long millis) {
+    millis = Math.max(millis, 0L);
+    counts.incrementAndGet(bucketOf(millis));
+    max.accumulateAndGet(millis, Math::max);
+    size.incrementAndGet();
+  }
+
+  /**
+   * Yields the number of recorded samples.
+   *
+   * @return the number of samples
+   */
+  public int count() {
+    return (int) size.get();
+  }
+
+  /**
+   * Yields a percentile of the recorded samples, by nearest rank. It is the largest
+   * latency of the bucket of that rank, hence it might exceed the exact percentile
+   * by its relative error; it never exceeds the largest sample, which is exact.
+   *
+   * @param percent the percentile, between 0 (excluded) and 100 (included)
+   * @return the percentile, in milliseconds, or 0 if no sample has been recorded
+   */
+  public long percentile(double percent) {
+    if (percent <= 0 || percent > 100)
+      throw new IllegalArgumentException("The percentile must be in (0, 100]");
+
+    long max = this.max.get();
+    long total = 0;
+    long[] snapshot = new long[BUCKETS];
+    for (int bucket = 0; bucket < BUCKETS; bucket++)
+      total += snapshot[bucket] = counts.get(bucket);
+
+    if (total == 0)
+      return 0L;
+
+    long rank = Math.max((long) Math.ceil(percent / 100 * total), 1L);
+    for (int bucket = 0; bucket < BUCKETS; bucket++)
+      if ((rank -= snapshot[bucket]) <= 0)
+        return Math.min(upperBoundOf(bucket), max);
+
+    return max;
+  }
+
+  @Override
+  public String toString() {
+    return size + " samples, p50 = " + percentile(50) + "ms, p90 = " + percentile(90)
+      + "ms, p99 = " + percentile(99) + "ms, max = " + percentile(100) + "ms";
+  }
+
+  private static int bucketOf(long millis) {
+    if (millis < LINEAR)
+      return (int) millis;
+
+    // the position of the leading bit selects a group of buckets, the next PRECISION bits the bucket in the group
+    int shift = Long.SIZE - Long.numberOfLeadingZeros(millis) - PRECISION - 1;
+    return LINEAR + (shift - 1) * (LINEAR / 2) + (int) (millis >>> shift) - LINEAR / 2;
+  }
+
+  private static long upperBoundOf(int bucket) {
+    if (bucket < LINEAR)
+      return bucket;
+
+    int shift = (bucket - LINEAR) / (LINEAR / 2) + 1;
+    long first = (long) ((bucket - LINEAR) % (LINEAR / 2) + LINEAR / 2) << shift;
+    return first + (1L << shift) - 1;
+  }
+}
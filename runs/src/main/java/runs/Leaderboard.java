@@ -0,0 +1,134 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import java.math.BigInteger;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.hotmoka.node.api.values.StorageReference;
+import runs.AuctionEventDecoder.AuctionEnd;
+import runs.AuctionEventDecoder.AuctionEvent;
+import runs.AuctionEventDecoder.BidIncrease;
+
+/**
+ * The standings of blind auctions, kept up to date from their events.
+ * It can be queried while the auctions are still running, without
+ * querying the auctions themselves.
+ */
+public class Leaderboard {
+
+  /**
+   * The highest bid of a bidder, among those that have been the highest of the auction.
+   */
+  public record Standing(StorageReference bidder, BigInteger amount) {}
+
+  private final ConcurrentMap<StorageReference, Board> boards = new ConcurrentHashMap<>();
+
+  /**
+   * The standings of a single auction.
+   */
+  private static class Board {
+    private final Map<StorageReference, BigInteger> bestOfBidder = new HashMap<>();
+    private Standing leader;
+    private boolean ended;
+
+    private synchronized void increase(StorageReference bidder, BigInteger amount) {
+      bestOfBidder.merge(bidder, amount, BigInteger::max);
+      if (leader == null || amount.compareTo(leader.amount) > 0)
+        leader = new Standing(bidder, amount);
+    }
+
+    private synchronized void end(StorageReference winner, BigInteger amount) {
+      bestOfBidder.merge(winner, amount, BigInteger::max);
+      leader = new Standing(winner, amount);
+      ended = true;
+    }
+
+    private synchronized List<Standing> standings() {
+      return bestOfBidder.entrySet().stream()
+        .map(entry -> new Standing(entry.getKey(), entry.getValue()))
+        .sorted(Comparator.comparing(Standing::amount).reversed())
+        .toList();
+    }
+  }
+
+  /**
+   * Updates the standings with the given event.
+   *
+   * @param event the event
+   */
+  public void accept(AuctionEvent event) {
+    Board board = boards.computeIfAbsent(event.auction(), __ -> new Board());
+
+    if (event instanceof BidIncrease increase)
+      board.increase(increase.bidder(), increase.amount());
+    else if (event instanceof AuctionEnd end)
+      board.end(end.highestBidder(), end.highestBid());
+  }
+
+  /**
+   * Yields the current highest bid of the given auction.
+   *
+   * @param auction the auction
+   * @return the highest bid, if any has been revealed yet
+   */
+  public Optional<Standing> leaderOf(StorageReference auction) {
+    Board board = boards.get(auction);
+    if (board == null)
+      return Optional.empty();
+
+    synchronized (board) {
+      return Optional.ofNullable(board.leader);
+    }
+  }
+
+  /**
+   * Yields the bidders of the given auction that have been the highest bidder
+   * at some time, with their highest bid, from the highest to the lowest.
+   *
+   * @param auction the auction
+   * @return the standings
+   */
+  public List<Standing> standingsOf(StorageReference auction) {
+    Board board = boards.get(auction);
+    return board == null ? List.of() : board.standings();
+  }
+
+  /**
+   * Determines if the given auction is known to have ended with a winner.
+   *
+   * @param auction the auction
+   * @return true if and only if that is the case
+   */
+  public boolean hasEnded(StorageReference auction) {
+    Board board = boards.get(auction);
+    if (board == null)
+      return false;
+
+    synchronized (board) {
+      return board.ended;
+    }
+  }
+}
@@ -0,0 +1,311 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import static io.hotmoka.helpers.Coin.panarea;
+import static io.hotmoka.node.StorageTypes.BIG_INTEGER;
+import static io.hotmoka.node.StorageTypes.INT;
+import static io.hotmoka.node.StorageTypes.LONG;
+import static io.hotmoka.node.StorageValues.longOf;
+
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.PrivateKey;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import io.hotmoka.crypto.Entropies;
+import io.hotmoka.crypto.SignatureAlgorithms;
+import io.hotmoka.helpers.InitializedNodes;
+import io.hotmoka.helpers.JarsNodes;
+import io.hotmoka.helpers.SignatureHelpers;
+import io.hotmoka.node.Accounts;
+import io.hotmoka.node.ConsensusConfigBuilders;
+import io.hotmoka.node.ConstructorSignatures;
+import io.hotmoka.node.MethodSignatures;
+import io.hotmoka.node.StorageTypes;
+import io.hotmoka.node.StorageValues;
+import io.hotmoka.node.TransactionRequests;
+import io.hotmoka.node.api.Node;
+import io.hotmoka.node.api.signatures.ConstructorSignature;
+import io.hotmoka.node.api.signatures.MethodSignature;
+import io.hotmoka.node.api.transactions.TransactionReference;
+import io.hotmoka.node.api.types.ClassType;
+import io.hotmoka.node.api.values.StorageReference;
+import io.hotmoka.node.disk.DiskNodeConfigBuilders;
+import io.hotmoka.node.disk.DiskNodes;
+import io.hotmoka.node.remote.RemoteNodes;
+import io.takamaka.code.constants.Constants;
+
+/**
+ * A load generator for the blind auction. It creates a pool of accounts and lets
+ * them place hashed bids at a given rate, for a given time, each bid from its
+ * own virtual thread, that leases an account of the pool until the bid is posted.
+ * At the end, it reports the achieved throughput, the percentiles of the commit
+ * latency, measured from the time each bid was scheduled, and the failures. The keys of the accounts can be kept in a file,
+ * given as -Dpool=file, so that a remote node does not create them again at each run.
+ *
+ * Run in the IDE or go inside this project and run
+ *
+ * mvn clean package
+ * java -Daccounts=200 -Drate=100 -Dduration=60 --module-path ../../hotmoka/io-hotmoka-moka/modules/explicit/:../../hotmoka/io-hotmoka-moka/modules/automatic:target/runs-0.0.1.jar -classpath ../../hotmoka/io-hotmoka-moka/modules/unnamed"/*" --add-modules org.glassfish.tyrus.container.grizzly.server,org.glassfish.tyrus.container.grizzly.client --module runs/runs.LoadGenerator disk
+ *
+ * or, against a remote node, with an account that pays for the others:
+ *
+ * ... --module runs/runs.LoadGenerator ws://panarea.hotmoka.io payer-storage-reference payer-password
+ *
+ * or on a clone of a snapshot of an initialized Tendermint node, built at the first run:
+ *
+ * ... --module runs/runs.LoadGenerator snapshot
+ */
+public class LoadGenerator {
+  public final static int ACCOUNTS = Integer.getInteger("accounts", 200); // number of bidding accounts
+  public final static int RATE = Integer.getInteger("rate", 100); // bids per second
+  public final static int DURATION = Integer.getInteger("duration", 60); // in seconds
+  public final static BigInteger FUNDS = new BigInteger(System.getProperty("funds", "100000000000")); // for each account
+  public final static int REVEAL_TIME = 60_000; // in milliseconds
+  public final static int WINDOW = 16; // maximal number of in-flight bids per account
+  public final static int GAS_PRICE_TTL = 10_000; // in milliseconds
+  public final static BigInteger SUPPLY = BigInteger.TEN.pow(30); // of the gamete of the disk node
+  public final static String SNAPSHOTS = "snapshots"; // default directory of the snapshots of initialized nodes
+
+  private final static BigInteger _500_000 = BigInteger.valueOf(500_000);
+  private final static BigInteger DEPOSIT = BigInteger.valueOf(1_000);
+
+  private final static ClassType BLIND_AUCTION
+    = StorageTypes.classNamed("io.takamaka.auction.BlindAuction");
+  private final static ConstructorSignature CONSTRUCTOR_BLIND_AUCTION
+    = ConstructorSignatures.of(BLIND_AUCTION, INT, INT);
+  private final static MethodSignature BID = MethodSignatures.ofVoid
+    (BLIND_AUCTION, "bid", BIG_INTEGER, LONG, LONG, LONG, LONG);
+
+  private final static Path AUCTION_PATH = Paths.get("../auction/target/auction-0.0.1.jar");
+
+  private final Node node;
+  private final String chainId;
+  private final TransactionReference classpath;
+  private final AccountPool pool;
+  private final StorageReference auction;
+  private final GasPriceCache gasPrices;
+  private final LatencyStats latencies = new LatencyStats();
+  private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 1 && "disk".equals(args[0]))
+      runOnDiskNode();
+    else if (args.length == 1 && "snapshot".equals(args[0]))
+      runOnSnapshot();
+    else if (args.length == 3) {
+      try (Node node = RemoteNodes.of(URI.create(args[0]), 20000)) {
+        StorageReference payer = StorageValues.reference(args[1]);
+        var keys = Accounts.of(payer, "..").keys(args[2], SignatureHelpers.of(node).signatureAlgorithmFor(payer));
+        new LoadGenerator(node, payer, keys.getPrivate(), Optional.empty(), poolFile()).run();
+      }
+    }
+    else
+      System.out.println("Usage: LoadGenerator (disk | snapshot | uri payer password)");
+  }
+
+  private static void runOnDiskNode() throws Exception {
+    var config = DiskNodeConfigBuilders.defaults().build();
+
+    // create a key pair for the gamete, that pays for everything else
+    var keys = Entropies.random().keys("password", SignatureAlgorithms.ed25519());
+    var consensus = ConsensusConfigBuilders.defaults()
+      .setInitialSupply(SUPPLY)
+      .setPublicKeyOfGamete(keys.getPublic()).build();
+
+    try (var node = DiskNodes.init(config)) {
+      var initialized = InitializedNodes.of(node, consensus, takamakaCodePath());
+      new LoadGenerator(node, initialized.gamete(), keys.getPrivate(), Optional.empty(), poolFile()).run();
+    }
+  }
+
+  /**
+   * Runs on a clone of a snapshot of an initialized node, with the jar of the auction
+   * installed and the accounts of the pool created already. The snapshot is built
+   * at the first run only, inside the directory given as -Dsnapshots=dir.
+   */
+  private static void runOnSnapshot() throws Exception {
+    var snapshot = new NodeSnapshot(Paths.get(System.getProperty("snapshots", SNAPSHOTS)),
+      takamakaCodePath(), List.of(AUCTION_PATH), ACCOUNTS, FUNDS, SUPPLY);
+    Path clone = Files.createTempDirectory("loadgenerator").resolve("clone");
+
+    try (var node = snapshot.resume(clone)) {
+      new LoadGenerator(node, snapshot.getGamete(), snapshot.getGameteKey(),
+        Optional.of(snapshot.getJar(0)), Optional.of(clone.resolve(NodeSnapshot.ACCOUNTS_FILE))).run();
+    }
+    finally {
+      NodeSnapshot.discard(clone.getParent());
+    }
+  }
+
+  /**
+   * Yields the path of the runtime Takamaka jar, inside Maven's cache.
+   */
+  private static Path takamakaCodePath() {
+    return Paths.get
+      (System.getProperty("user.home") +
+      "/.m2/repository/io/hotmoka/io-takamaka-code/" + Constants.TAKAMAKA_VERSION + "/io-takamaka-code-" + Constants.TAKAMAKA_VERSION + ".jar");
+  }
+
+  private static Optional<Path> poolFile() {
+    return Optional.ofNullable(System.getProperty("pool")).map(Paths::get);
+  }
+
+  private LoadGenerator(Node node, StorageReference payer, PrivateKey key, Optional<TransactionReference> auctionJar, Optional<Path> poolFile) throws Exception {
+    this.node = node;
+    this.gasPrices = new GasPriceCache(node, GAS_PRICE_TTL, 0);
+    this.chainId = node.getConfig().getChainId();
+
+    // the caches have their own threads, that must not survive a failed construction
+    try {
+      if (auctionJar.isPresent())
+        this.classpath = auctionJar.get();
+      else {
+        System.out.println("Installing jar");
+        this.classpath = JarsNodes.of(node, payer, key, AUCTION_PATH).jar(0);
+      }
+
+      System.out.println("Creating a pool of " + ACCOUNTS + " accounts");
+      this.pool = new AccountPool(node, payer, key, ACCOUNTS, FUNDS, poolFile);
+
+      try {
+        System.out.println("Creating contract");
+        this.auction = createAuction();
+      }
+      catch (Exception e) {
+        pool.close();
+        throw e;
+      }
+    }
+    catch (Exception e) {
+      gasPrices.close();
+      throw e;
+    }
+  }
+
+  private StorageReference createAuction() throws Exception {
+    try (var lease = pool.lease()) {
+      BigInteger gasPrice = panarea(gasPrices.getSafeGasPrice());
+      // the bidding time must cover the whole run, or later bids would be rejected
+      var auction = pool.getNonces().send(lease.getAccount(), nonce -> TransactionRequests.constructorCall
+        (lease.getSigner(), lease.getAccount(),
+        nonce, chainId, _500_000, gasPrice,
+        classpath, CONSTRUCTOR_BLIND_AUCTION,
+        StorageValues.intOf(DURATION * 1000 + REVEAL_TIME), StorageValues.intOf(REVEAL_TIME)),
+        node::addConstructorCallTransaction);
+      lease.charge(_500_000, gasPrice);
+      return auction;
+    }
+  }
+
+  private void run() throws Exception {
+    System.out.println("Placing " + RATE + " bids per second for " + DURATION + " seconds");
+    var sent = new AtomicInteger();
+    long period = 1_000_000_000L / RATE;
+    long start = System.nanoTime();
+    long end = start + DURATION * 1_000_000_000L;
+
+    try (var submitter = new AsyncSubmitter(node, pool.getNonces(), WINDOW);
+         var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+
+      // bids are scheduled at a fixed rate, independently of how fast the node commits them
+      for (long next = start; next < end; next += period) {
+        LockSupport.parkNanos(next - System.nanoTime());
+        sent.incrementAndGet();
+        long scheduled = next;
+        executor.execute(() -> placeBid(submitter, scheduled));
+      }
+
+      // closing the executor waits for all bids to be committed or to fail
+    }
+    finally {
+      gasPrices.close();
+      pool.close();
+    }
+
+    long elapsed = System.nanoTime() - start;
+    int committed = latencies.count();
+    System.out.println("sent: " + sent + " bids");
+    System.out.println("committed: " + committed + " bids");
+    System.out.printf("throughput: %.2f transactions per second%n", committed * 1_000_000_000.0 / elapsed);
+    System.out.println("commit latency: " + latencies);
+    failures.forEach((cause, count) -> System.out.println("failed: " + count + " bids with " + cause));
+    System.out.println(gasPrices);
+    System.out.println(pool);
+  }
+
+  /**
+   * Places a bid and waits for its commit. The latency is measured from the time
+   * the bid was scheduled, so that the time spent waiting for an account or for
+   * a slot in the window of the account counts as well.
+   */
+  private void placeBid(AsyncSubmitter submitter, long scheduled) {
+    // the bid is never revealed, hence its hash can be random
+    var random = ThreadLocalRandom.current();
+    long h0 = random.nextLong(), h1 = random.nextLong(), h2 = random.nextLong(), h3 = random.nextLong();
+
+    try {
+      BigInteger gasPrice = panarea(gasPrices.getSafeGasPrice());
+      var lease = pool.lease();
+      CompletableFuture<?> future;
+
+      // the account is given back as soon as the bid is posted, so that
+      // further bids can use it while this one is in flight
+      try (lease) {
+        future = submitter.instanceMethodCall(lease.getAccount(), nonce -> TransactionRequests.instanceMethodCall
+          (lease.getSigner(), lease.getAccount(),
+          nonce, chainId, _500_000, gasPrice,
+          classpath, BID, auction, StorageValues.bigIntegerOf(DEPOSIT),
+          longOf(h0), longOf(h1), longOf(h2), longOf(h3)));
+      }
+
+      future.get();
+      latencies.record((System.nanoTime() - scheduled) / 1_000_000);
+      // the deposit is paid as well; bids that fail are not charged
+      lease.charge(_500_000.multiply(gasPrice).add(DEPOSIT));
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException e) {
+      failed(e.getCause() != null ? e.getCause() : e);
+    }
+    catch (Exception e) {
+      failed(e);
+    }
+  }
+
+  private void failed(Throwable cause) {
+    failures.computeIfAbsent(cause.getClass().getSimpleName(), __ -> new LongAdder()).increment();
+  }
+}
@@ -0,0 +1,312 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.ServerSocket;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import io.hotmoka.crypto.SignatureAlgorithms;
+import io.hotmoka.helpers.InitializedNodes;
+import io.hotmoka.helpers.JarsNodes;
+import io.hotmoka.node.TransactionReferences;
+import io.hotmoka.node.ValidatorsConsensusConfigBuilders;
+import io.hotmoka.node.api.transactions.TransactionReference;
+import io.hotmoka.node.api.values.StorageReference;
+import io.hotmoka.node.tendermint.TendermintNodeConfigBuilders;
+import io.hotmoka.node.tendermint.TendermintNodes;
+import io.hotmoka.node.tendermint.api.TendermintNode;
+
+/**
+ * A snapshot of an initialized node, with some jars installed and some accounts
+ * created, that is built once and then cloned for each run, so that runs skip the
+ * initialization of the node. Snapshots live in a directory, each in a subdirectory
+ * named after the hash of its inputs: the Takamaka runtime, the jars, the number of
+ * accounts, their funds and the supply of the gamete. Hence a snapshot is built again
+ * only if its inputs change. A snapshot holds the store of the node, the key of
+ * the gamete and the keys of the accounts, in {@link KeyFile}s.
+ *
+ * Snapshots are Tendermint nodes, since their store survives the node, while
+ * that of disk nodes lives in memory and cannot be resumed. Each clone gets its
+ * own free ports, so that many clones can run at the same time.
+ */
+public class NodeSnapshot {
+  public final static String NODE_DIR = "node"; // the store of the node, inside a snapshot
+  public final static String GAMETE_FILE = "gamete.keys"; // the key of the gamete, inside a snapshot
+  public final static String ACCOUNTS_FILE = "accounts.keys"; // the keys of the accounts, inside a snapshot
+  public final static String JARS_FILE = "jars.properties"; // the installed jars, inside a snapshot
+
+  /**
+   * The configuration of Tendermint, inside the directory of the node.
+   */
+  private final static Path TENDERMINT_CONFIG = Paths.get("blocks", "config", "config.toml");
+
+  /**
+   * The addresses that Tendermint listens to, whose port gets changed in each clone:
+   * the ABCI application, at top level, and the RPC and P2P endpoints.
+   */
+  private final static Pattern ADDRESS = Pattern.compile("^(\\s*(proxy_app|laddr)\\s*=\\s*\"\\w+://[^\"]*:)(\\d+)(\".*)$");
+
+  private final Path dir;
+  private final StorageReference gamete;
+  private final PrivateKey gameteKey;
+  private final List<TransactionReference> jars = new ArrayList<>();
+
+  /**
+   * Yields the snapshot with the given inputs, building it if it does not exist yet.
+   *
+   * @param snapshots the directory of the snapshots; it is created if missing
+   * @param takamakaCode the jar of the Takamaka runtime
+   * @param jars the jars to install in the node, paid by the gamete
+   * @param accounts the number of accounts to create, paid by the gamete
+   * @param funds the initial balance of each account
+   * @param supply the initial supply of the gamete
+   */
+  public NodeSnapshot(Path snapshots, Path takamakaCode, List<Path> jars, int accounts, BigInteger funds, BigInteger supply) throws Exception {
+    this.dir = snapshots.resolve(keyOf(takamakaCode, jars, accounts, funds, supply));
+
+    if (!Files.exists(dir))
+      build(takamakaCode, jars, accounts, funds, supply);
+
+    var gameteKeys = new KeyFile(dir.resolve(GAMETE_FILE));
+    this.gamete = gameteKeys.account(0);
+    this.gameteKey = gameteKeys.privateKey(0);
+
+    var installed = new Properties();
+    try (var reader = Files.newBufferedReader(dir.resolve(JARS_FILE))) {
+      installed.load(reader);
+    }
+
+    for (int pos = 0; pos < jars.size(); pos++)
+      this.jars.add(TransactionReferences.of(installed.getProperty("jar." + pos)));
+  }
+
+  /**
+   * Yields the directory of this snapshot.
+   *
+   * @return the directory
+   */
+  public Path getDir() {
+    return dir;
+  }
+
+  /**
+   * Yields the gamete of the node of this snapshot.
+   *
+   * @return the gamete
+   */
+  public StorageReference getGamete() {
+    return gamete;
+  }
+
+  /**
+   * Yields the private key of the gamete of the node of this snapshot.
+   *
+   * @return the private key
+   */
+  public PrivateKey getGameteKey() {
+    return gameteKey;
+  }
+
+  /**
+   * Yields the transaction that installed a jar in the node of this snapshot.
+   *
+   * @param pos the position of the jar, among those given to build the snapshot
+   * @return the transaction
+   */
+  public TransactionReference getJar(int pos) {
+    return jars.get(pos);
+  }
+
+  /**
+   * Clones this snapshot into the given directory and starts the node of the clone.
+   * The clone is independent from this snapshot, that is never modified, and listens
+   * to free ports, distinct from those of the other clones that are running.
+   *
+   * @param clone the directory of the clone; it must not exist
+   * @return the node of the clone, whose accounts are in the {@link #ACCOUNTS_FILE} of the clone
+   */
+  public TendermintNode resume(Path clone) throws Exception {
+    if (Files.exists(clone))
+      throw new FileAlreadyExistsException(clone.toString());
+
+    copy(dir, clone);
+    assignPorts(clone.resolve(NODE_DIR).resolve(TENDERMINT_CONFIG));
+
+    return TendermintNodes.resume(TendermintNodeConfigBuilders.defaults().setDir(clone.resolve(NODE_DIR)).build());
+  }
+
+  /**
+   * Deletes a clone of a snapshot, whose node must have been closed already.
+   *
+   * @param clone the directory of the clone
+   */
+  public static void discard(Path clone) throws IOException {
+    if (Files.exists(clone))
+      delete(clone);
+  }
+
+  /**
+   * Builds this snapshot in a temporary directory, that gets moved in place only when complete.
+   */
+  private void build(Path takamakaCode, List<Path> jars, int accounts, BigInteger funds, BigInteger supply) throws Exception {
+    Files.createDirectories(dir.getParent());
+    Path temp = Files.createTempDirectory(dir.getParent(), "snapshot");
+
+    try {
+      var signature = SignatureAlgorithms.ed25519();
+      var keys = signature.getKeyPair();
+      var consensus = ValidatorsConsensusConfigBuilders.defaults()
+        .setInitialSupply(supply)
+        .setPublicKeyOfGamete(keys.getPublic())
+        .build();
+
+      try (var node = TendermintNodes.init(TendermintNodeConfigBuilders.defaults().setDir(temp.resolve(NODE_DIR)).build())) {
+        StorageReference gamete = InitializedNodes.of(node, consensus, takamakaCode).gamete();
+        KeyFile.write(temp.resolve(GAMETE_FILE), signature, List.of(gamete), List.of(keys.getPrivate()));
+
+        var installed = new Properties();
+        if (!jars.isEmpty()) {
+          var nodeWithJars = JarsNodes.of(node, gamete, keys.getPrivate(), jars.toArray(Path[]::new));
+          for (int pos = 0; pos < jars.size(); pos++)
+            installed.setProperty("jar." + pos, nodeWithJars.jar(pos).toString());
+        }
+
+        try (var writer = Files.newBufferedWriter(temp.resolve(JARS_FILE))) {
+          installed.store(writer, "jars installed in the snapshot");
+        }
+
+        var provisioner = new AccountProvisioner(node, gamete, keys.getPrivate(), new NonceManager(node));
+        var provisioned = provisioner.provision(accounts, funds);
+        KeyFile.write(temp.resolve(ACCOUNTS_FILE), provisioner.getSignature(),
+          provisioned.stream().map(AccountProvisioner.Provisioned::account).toList(),
+          provisioned.stream().map(AccountProvisioner.Provisioned::key).toList());
+      }
+
+      try {
+        Files.move(temp, dir, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+        // another run built the same snapshot meanwhile: that is used instead
+        delete(temp);
+      }
+    }
+    catch (Exception e) {
+      delete(temp);
+      throw e;
+    }
+  }
+
+  /**
+   * Replaces the ports of the ABCI application and of the RPC and P2P endpoints,
+   * in the given configuration of Tendermint, with ports that are currently free.
+   */
+  private static void assignPorts(Path config) throws IOException {
+    var ports = freePorts(3).iterator();
+    var lines = new ArrayList<String>();
+    String section = "";
+
+    for (String line: Files.readAllLines(config, UTF_8)) {
+      if (line.startsWith("["))
+        section = line.trim();
+
+      Matcher matcher = ADDRESS.matcher(line);
+      if (matcher.matches()) {
+        boolean listens = "proxy_app".equals(matcher.group(2)) ? section.isEmpty() : "[rpc]".equals(section) || "[p2p]".equals(section);
+        if (listens)
+          line = matcher.group(1) + ports.next() + matcher.group(4);
+      }
+
+      lines.add(line);
+    }
+
+    Files.write(config, lines, UTF_8);
+  }
+
+  /**
+   * Yields the given number of distinct ports that are currently free. They are kept
+   * open together, so that the operating system cannot yield the same port twice.
+   */
+  private static List<Integer> freePorts(int count) throws IOException {
+    var sockets = new ArrayList<ServerSocket>();
+
+    try {
+      for (int pos = 0; pos < count; pos++)
+        sockets.add(new ServerSocket(0));
+
+      return sockets.stream().map(ServerSocket::getLocalPort).toList();
+    }
+    finally {
+      for (var socket: sockets)
+        socket.close();
+    }
+  }
+
+  private static String keyOf(Path takamakaCode, List<Path> jars, int accounts, BigInteger funds, BigInteger supply) throws Exception {
+    var digest = MessageDigest.getInstance("SHA-256");
+    digest.update(Files.readAllBytes(takamakaCode));
+    for (Path jar: jars)
+      digest.update(Files.readAllBytes(jar));
+
+    digest.update((accounts + " " + funds + " " + supply).getBytes(UTF_8));
+
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  /**
+   * Copies a directory tree. Files are copied rather than linked, since the stores
+   * of the node append to their files in place, that would modify the snapshot.
+   */
+  private static void copy(Path from, Path to) throws IOException {
+    try (Stream<Path> paths = Files.walk(from)) {
+      for (Path path: paths.toList()) {
+        Path target = to.resolve(from.relativize(path).toString());
+        if (Files.isDirectory(path))
+          Files.createDirectories(target);
+        else
+          Files.copy(path, target, StandardCopyOption.COPY_ATTRIBUTES);
+      }
+    }
+  }
+
+  private static void delete(Path dir) throws IOException {
+    try (Stream<Path> paths = Files.walk(dir)) {
+      for (Path path: paths.sorted(Comparator.reverseOrder()).toList())
+        Files.delete(path);
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import io.hotmoka.crypto.SignatureAlgorithms;
+import io.hotmoka.helpers.InitializedNodes;
+import io.hotmoka.node.ConsensusConfigBuilders;
+import io.hotmoka.node.api.Node;
+import io.hotmoka.node.api.values.StorageReference;
+import io.hotmoka.node.disk.DiskNodeConfigBuilders;
+import io.hotmoka.node.disk.DiskNodes;
+import io.hotmoka.node.remote.RemoteNodes;
+import io.takamaka.code.constants.Constants;
+
+/**
+ * The node where a run sends its transactions, with the session of the run.
+ * It is either a remote node, reached through websockets, or a disk node
+ * embedded in the same JVM, that is reached without serialization over the
+ * network. The latter is created empty at each run, with fresh accounts
+ * funded by its gamete, and it shares the clock of the run, hence
+ * the phases of the runs can be compressed to seconds. The events of a remote node
+ * are received through connections of their own, that can be opened again if they drop.
+ */
+public class NodeTarget implements AutoCloseable {
+  public final static String EMBEDDED = "disk"; // the name of the embedded target
+  public final static BigInteger SUPPLY = BigInteger.TEN.pow(30); // of the gamete of the embedded node
+  public final static BigInteger FUNDS = BigInteger.TEN.pow(20); // of each account of the embedded node
+
+  private final Node node;
+  private final Session session;
+  private final URI uri; // null for the embedded node
+  private final List<Node> eventConnections = new ArrayList<>();
+
+  /**
+   * Connects to the given target. The accounts of the session are the given ones,
+   * for a remote node; for the embedded node, they are as many fresh accounts.
+   *
+   * @param target {@link #EMBEDDED} or the URI of a remote node
+   * @param cacheDir the directory where the immutable data of the remote nodes is kept; this is optional
+   * @param keysDir the directory that contains the key files of the accounts of the remote nodes
+   * @param passwords the accounts used with a remote node, with the password of their key
+   */
+  public NodeTarget(String target, Optional<Path> cacheDir, String keysDir, Map<StorageReference, String> passwords) throws Exception {
+    if (EMBEDDED.equals(target)) {
+      var signature = SignatureAlgorithms.ed25519();
+      var keys = signature.getKeyPair();
+      var consensus = ConsensusConfigBuilders.defaults()
+        .setInitialSupply(SUPPLY)
+        .setPublicKeyOfGamete(keys.getPublic()).build();
+
+      this.uri = null;
+      this.node = DiskNodes.init(DiskNodeConfigBuilders.defaults().build());
+
+      try {
+        StorageReference gamete = InitializedNodes.of(node, consensus, takamakaCodePath()).gamete();
+        var accounts = new LinkedHashMap<StorageReference, PrivateKey>();
+        for (var provisioned: new AccountProvisioner(node, gamete, keys.getPrivate(), new NonceManager(node)).provision(passwords.size(), FUNDS))
+          accounts.put(provisioned.account(), provisioned.key());
+
+        // the embedded node is new at each run: there is nothing to cache about it
+        this.session = new Session(node, target, Optional.empty(), accounts);
+      }
+      catch (Exception e) {
+        node.close();
+        throw e;
+      }
+    }
+    else {
+      this.uri = URI.create(target);
+      this.node = RemoteNodes.of(uri, 20000);
+
+      try {
+        this.session = new Session(node, target, cacheDir, keysDir, passwords);
+      }
+      catch (Exception e) {
+        node.close();
+        throw e;
+      }
+    }
+  }
+
+  public Node getNode() {
+    return node;
+  }
+
+  public Session getSession() {
+    return session;
+  }
+
+  /**
+   * Yields a node whose events can be subscribed to. For a remote target, this is
+   * a new connection to the node, so that it can be replaced if it drops, without
+   * affecting the connection used for the transactions. It is closed with this target.
+   *
+   * @return the node
+   */
+  public synchronized Node connectForEvents() throws Exception {
+    if (uri == null)
+      return node;
+
+    var connection = RemoteNodes.of(uri, 20000);
+    eventConnections.add(connection);
+    return connection;
+  }
+
+  @Override
+  public void close() throws Exception {
+    try {
+      synchronized (this) {
+        for (var connection: eventConnections)
+          connection.close();
+      }
+    }
+    finally {
+      node.close();
+    }
+  }
+
+  /**
+   * Yields the path of the runtime Takamaka jar, inside Maven's cache.
+   */
+  private static Path takamakaCodePath() {
+    return Paths.get
+      (System.getProperty("user.home") +
+      "/.m2/repository/io/hotmoka/io-takamaka-code/" + Constants.TAKAMAKA_VERSION + "/io-takamaka-code-" + Constants.TAKAMAKA_VERSION + ".jar");
+  }
+}
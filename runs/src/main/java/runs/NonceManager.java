@@ -0,0 +1,146 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import static java.math.BigInteger.ONE;
+
+import java.math.BigInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.hotmoka.helpers.NonceHelpers;
+import io.hotmoka.helpers.api.NonceHelper;
+import io.hotmoka.node.api.Node;
+import io.hotmoka.node.api.TransactionRejectedException;
+import io.hotmoka.node.api.values.StorageReference;
+
+/**
+ * A local copy of the nonces of the accounts that pay for transactions.
+ * The nonce of an account is fetched from the node only the first time
+ * it is needed; after that, nonces are handed out locally, without
+ * locking, also to concurrent users of the same account. The copy
+ * is brought back in sync with the node only after the node rejects
+ * a request, since a rejected request does not consume its nonce.
+ */
+public class NonceManager {
+  private final NonceHelper nonceHelper;
+
+  /**
+   * The next nonce to hand out, for each account.
+   */
+  private final ConcurrentMap<StorageReference, AtomicReference<BigInteger>> nonces = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a manager of the nonces of the accounts in the given node.
+   *
+   * @param node the node
+   */
+  public NonceManager(Node node) {
+    this.nonceHelper = NonceHelpers.of(node);
+  }
+
+  /**
+   * Yields the nonce to use for the next request paid by the given account.
+   * Each call yields a distinct nonce.
+   *
+   * @param account the account
+   * @return the nonce
+   */
+  public BigInteger next(StorageReference account) throws Exception {
+    return nonceOf(account).getAndUpdate(nonce -> nonce.add(ONE));
+  }
+
+  /**
+   * Fetches the nonce of the given account, if it has not been fetched yet,
+   * so that later requests find it already in memory.
+   *
+   * @param account the account
+   */
+  public void prefetch(StorageReference account) throws Exception {
+    nonceOf(account);
+  }
+
+  /**
+   * Sends a request paid by the given account, built with the next nonce of the account,
+   * and yields its outcome. If the node rejects the request, the local copy of the nonce
+   * is brought back in sync with the node and, if the nonce of the request was not
+   * the one expected by the node, the request is built and sent once more.
+   * No other request of the account can be in flight meanwhile.
+   *
+   * @param account the payer of the request
+   * @param builder the builder of the request, given the nonce of the payer
+   * @param sender sends the request and waits for its outcome
+   * @return the outcome of the request
+   */
+  public <R, V> V send(StorageReference account, AsyncSubmitter.RequestBuilder<R> builder, Sender<R, V> sender) throws Exception {
+    BigInteger nonce = next(account);
+
+    try {
+      return sender.send(builder.build(nonce));
+    }
+    catch (TransactionRejectedException e) {
+      if (resync(account).equals(nonce))
+        // the nonce was right, the request has been rejected for another reason
+        throw e;
+
+      return sender.send(builder.build(next(account)));
+    }
+  }
+
+  /**
+   * Sends a request to the node and waits for its outcome.
+   */
+  public interface Sender<R, V> {
+    V send(R request) throws Exception;
+  }
+
+  /**
+   * Compares the local copy of the nonce of the given account with the nonce
+   * that the node expects for the next request of the account, and replaces
+   * the former with the latter if they differ. The node only knows about the
+   * requests that it has already processed, hence this must be called only
+   * when no request of the account is in flight.
+   *
+   * @param account the account
+   * @return the nonce that the node expects for the next request of the account
+   */
+  public BigInteger resync(StorageReference account) throws Exception {
+    BigInteger expected = nonceHelper.getNonceOf(account);
+    AtomicReference<BigInteger> local = nonceOf(account);
+    if (!expected.equals(local.get()))
+      local.set(expected);
+
+    return expected;
+  }
+
+  private AtomicReference<BigInteger> nonceOf(StorageReference account) throws Exception {
+    AtomicReference<BigInteger> nonce = nonces.get(account);
+    if (nonce == null) {
+      // concurrent first users might both fetch the nonce,
+      // but only one of them will be kept
+      var fetched = new AtomicReference<>(nonceHelper.getNonceOf(account));
+      nonce = nonces.putIfAbsent(account, fetched);
+      if (nonce == null)
+        nonce = fetched;
+    }
+
+    return nonce;
+  }
+}
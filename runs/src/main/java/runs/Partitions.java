@@ -0,0 +1,97 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Runs tasks partitioned by a key, typically the account that pays for them.
+ * The tasks of the same partition run one after the other, in their order,
+ * on the same virtual thread, while distinct partitions run concurrently.
+ */
+public class Partitions {
+
+  /**
+   * A task over an item.
+   */
+  public interface Task<T> {
+    void run(T item) throws Exception;
+  }
+
+  private Partitions() {}
+
+  /**
+   * Runs the given task over each item and waits for all of them to terminate.
+   *
+   * @param items the items
+   * @param keyOf the key of the partition of each item
+   * @param maxConcurrency the maximal number of tasks running at the same time, over all partitions
+   * @param task the task
+   * @throws Exception the first exception thrown by a task, if any
+   */
+  public static <K, T> void run(List<T> items, Function<T, K> keyOf, int maxConcurrency, Task<T> task) throws Exception {
+    if (maxConcurrency <= 0)
+      throw new IllegalArgumentException("The maximal concurrency must be positive");
+
+    // partitions keep the order of their items
+    var partitions = new LinkedHashMap<K, List<T>>();
+    for (T item: items)
+      partitions.computeIfAbsent(keyOf.apply(item), __ -> new ArrayList<>()).add(item);
+
+    var permits = new Semaphore(maxConcurrency);
+    var futures = new ArrayList<Future<?>>();
+
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (List<T> partition: partitions.values())
+        futures.add(executor.submit(() -> {
+          for (T item: partition) {
+            permits.acquire();
+            try {
+              task.run(item);
+            }
+            finally {
+              permits.release();
+            }
+          }
+
+          return null;
+        }));
+
+      for (var future: futures) {
+        try {
+          future.get();
+        }
+        catch (ExecutionException e) {
+          futures.forEach(f -> f.cancel(true));
+          if (e.getCause() instanceof Exception cause)
+            throw cause;
+          else
+            throw e;
+        }
+      }
+    }
+  }
+}
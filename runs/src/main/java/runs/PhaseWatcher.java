@@ -0,0 +1,154 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import static io.hotmoka.node.StorageTypes.LONG;
+
+import java.math.BigInteger;
+
+import io.hotmoka.node.MethodSignatures;
+import io.hotmoka.node.StorageTypes;
+import io.hotmoka.node.TransactionRequests;
+import io.hotmoka.node.api.Node;
+import io.hotmoka.node.api.signatures.MethodSignature;
+import io.hotmoka.node.api.transactions.TransactionReference;
+import io.hotmoka.node.api.types.ClassType;
+import io.hotmoka.node.api.values.StorageReference;
+
+/**
+ * A watcher of the phases of a blind auction. It reads the end of the phases
+ * from the auction, in node time, and translates them into local time,
+ * through an estimation of the skew between the clock of the node and the
+ * local clock. This allows one to wake up as soon as a phase is over
+ * in the node, without adding fixed safety margins.
+ */
+public class PhaseWatcher {
+  private final static BigInteger _100_000 = BigInteger.valueOf(100_000);
+
+  private final static ClassType BLIND_AUCTION
+    = StorageTypes.classNamed("io.takamaka.auction.BlindAuction");
+  private final static MethodSignature GET_BIDDING_END = MethodSignatures.ofNonVoid
+    (BLIND_AUCTION, "getBiddingEnd", LONG);
+  private final static MethodSignature GET_REVEAL_END = MethodSignatures.ofNonVoid
+    (BLIND_AUCTION, "getRevealEnd", LONG);
+
+  private final long biddingEnd;
+  private final long revealEnd;
+
+  /**
+   * The skew (node time minus local time) is known to lie between these bounds.
+   */
+  private long minSkew = Long.MIN_VALUE;
+  private long maxSkew = Long.MAX_VALUE;
+
+  /**
+   * Creates a watcher of the phases of the given auction.
+   *
+   * @param node the node where the auction has been created
+   * @param payer the account that pays for the view calls
+   * @param classpath the class path of the auction
+   * @param auction the auction
+   */
+  public PhaseWatcher(Node node, StorageReference payer, TransactionReference classpath, StorageReference auction) throws Exception {
+    this.biddingEnd = node.runInstanceMethodCallTransaction(TransactionRequests.instanceViewMethodCall
+      (payer, _100_000, classpath, GET_BIDDING_END, auction)).get()
+      .asLong(__ -> new ClassCastException());
+    this.revealEnd = node.runInstanceMethodCallTransaction(TransactionRequests.instanceViewMethodCall
+      (payer, _100_000, classpath, GET_REVEAL_END, auction)).get()
+      .asLong(__ -> new ClassCastException());
+  }
+
+  /**
+   * Yields the time when the bidding time ends.
+   *
+   * @return the time, in milliseconds since the epoch, in node time
+   */
+  public long getBiddingEnd() {
+    return biddingEnd;
+  }
+
+  /**
+   * Yields the time when the reveal time ends.
+   *
+   * @return the time, in milliseconds since the epoch, in node time
+   */
+  public long getRevealEnd() {
+    return revealEnd;
+  }
+
+  /**
+   * Refines the estimation of the skew with a transaction that has been
+   * executed by the node at a known node time. The transaction was sent
+   * and committed at the given local times, hence it was executed in between.
+   *
+   * @param sent the local time when the transaction was sent
+   * @param committed the local time when the transaction was committed
+   * @param executed the node time when the transaction was executed
+   */
+  public synchronized void calibrate(long sent, long committed, long executed) {
+    long min = executed - committed, max = executed - sent;
+    if (min > maxSkew || max < minSkew) {
+      // the clocks have jumped: the old estimation is useless
+      minSkew = min;
+      maxSkew = max;
+    }
+    else {
+      minSkew = Math.max(minSkew, min);
+      maxSkew = Math.min(maxSkew, max);
+    }
+  }
+
+  /**
+   * Waits until the bidding time is over, in node time.
+   */
+  public void waitUntilEndOfBiddingTime() throws InterruptedException {
+    waitUntil(biddingEnd);
+  }
+
+  /**
+   * Waits until the reveal time is over, in node time.
+   */
+  public void waitUntilEndOfRevealTime() throws InterruptedException {
+    waitUntil(revealEnd);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "node clock skew between " + minSkew + "ms and " + maxSkew + "ms";
+  }
+
+  /**
+   * Waits until the given node time is over. Since the node time
+   * is at least the local time plus the minimal skew, this is the case
+   * as soon as the local time goes beyond the given time minus the minimal skew.
+   */
+  private void waitUntil(long nodeTime) throws InterruptedException {
+    long minSkew;
+    synchronized (this) {
+      if (this.minSkew == Long.MIN_VALUE)
+        throw new IllegalStateException("The watcher has not been calibrated yet");
+
+      minSkew = this.minSkew;
+    }
+
+    long localTime = nodeTime - minSkew + 1;
+    for (long now = System.currentTimeMillis(); now < localTime; now = System.currentTimeMillis())
+      Thread.sleep(localTime - now);
+  }
+}
@@ -0,0 +1,239 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.hotmoka.crypto.api.Signer;
+import io.hotmoka.helpers.SignatureHelpers;
+import io.hotmoka.node.Accounts;
+import io.hotmoka.node.MethodSignatures;
+import io.hotmoka.node.TransactionReferences;
+import io.hotmoka.node.TransactionRequests;
+import io.hotmoka.node.api.Node;
+import io.hotmoka.node.api.requests.SignedTransactionRequest;
+import io.hotmoka.node.api.transactions.TransactionReference;
+import io.hotmoka.node.api.values.StorageReference;
+
+/**
+ * The data that a client needs before sending transactions to a node: the
+ * reference to the Takamaka runtime, the manifest, the chain identifier, the
+ * signers of the accounts and their nonces. They are fetched in parallel.
+ * The immutable ones can be kept on disk, for each node: the next run only
+ * checks that the manifest of the node is still the same, in parallel with
+ * the rest, and reuses them.
+ */
+public class Session {
+  private final static Logger LOGGER = Logger.getLogger(Session.class.getName());
+  private final static BigInteger _50_000 = BigInteger.valueOf(50_000);
+
+  private final Node node;
+  private final StorageReference manifest;
+  private final TransactionReference takamakaCode;
+  private final String chainId;
+  private final StorageReference[] accounts;
+  private final List<Signer<SignedTransactionRequest<?>>> signers;
+  private final NonceManager nonces;
+
+  /**
+   * An account of the session, with the loader of its private key.
+   */
+  private record Key(StorageReference account, Callable<PrivateKey> loader) {}
+
+  /**
+   * Bootstraps a session with the given node.
+   *
+   * @param node the node
+   * @param name the name of the node, such as its URI, used to identify its data on disk
+   * @param cacheDir the directory where the immutable data of the nodes is kept; this is optional
+   * @param keysDir the directory that contains the key files of the accounts
+   * @param passwords the accounts used in the session, with the password of their key
+   */
+  public Session(Node node, String name, Optional<Path> cacheDir, String keysDir, Map<StorageReference, String> passwords) throws Exception {
+    this(node, name, cacheDir, loadersOf(node, keysDir, passwords));
+  }
+
+  /**
+   * Bootstraps a session with the given node, for accounts whose private key is known already.
+   *
+   * @param node the node
+   * @param name the name of the node, such as its URI, used to identify its data on disk
+   * @param cacheDir the directory where the immutable data of the nodes is kept; this is optional
+   * @param keys the accounts used in the session, with their private key, in iteration order
+   */
+  public Session(Node node, String name, Optional<Path> cacheDir, Map<StorageReference, PrivateKey> keys) throws Exception {
+    this(node, name, cacheDir, loadersOf(keys));
+  }
+
+  private Session(Node node, String name, Optional<Path> cacheDir, List<Key> keys) throws Exception {
+    this.node = node;
+    this.nonces = new NonceManager(node);
+    this.accounts = keys.stream().map(Key::account).toArray(StorageReference[]::new);
+    Optional<Path> cacheFile = cacheDir.map(dir -> dir.resolve(name.replaceAll("[^A-Za-z0-9.-]", "_") + ".properties"));
+    Optional<Properties> cached = cacheFile.flatMap(Session::load);
+
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      Future<StorageReference> manifest = executor.submit(node::getManifest);
+      Future<TransactionReference> takamakaCode = executor.submit(() -> {
+        // the reference to the Takamaka code is reused only if the node still has the same manifest
+        Optional<TransactionReference> cachedTakamakaCode = sameManifest(cached, manifest.get())
+          .map(properties -> TransactionReferences.of(properties.getProperty("takamakaCode")));
+
+        return cachedTakamakaCode.isPresent() ? cachedTakamakaCode.get() : node.getTakamakaCode();
+      });
+
+      var signature = node.getConfig().getSignatureForRequests();
+      var signers = new ArrayList<Future<Signer<SignedTransactionRequest<?>>>>();
+      for (var key: keys) {
+        StorageReference account = key.account;
+        signers.add(executor.submit(() -> signature.getSigner(key.loader.call(), SignedTransactionRequest<?>::toByteArrayWithoutSignature)));
+        executor.submit(() -> { nonces.prefetch(account); return null; });
+      }
+
+      this.manifest = Futures.get(manifest);
+      this.takamakaCode = Futures.get(takamakaCode);
+      this.signers = new ArrayList<>();
+      for (var signer: signers)
+        this.signers.add(Futures.get(signer));
+    }
+
+    // the chain identifier is reused only if the node still has the same manifest
+    Optional<String> cachedChainId = sameManifest(cached, this.manifest)
+      .map(properties -> properties.getProperty("chainId"));
+
+    if (cachedChainId.isPresent())
+      this.chainId = cachedChainId.get();
+    else {
+      this.chainId = node.runInstanceMethodCallTransaction(TransactionRequests.instanceViewMethodCall
+        (accounts[0], _50_000, this.takamakaCode, MethodSignatures.GET_CHAIN_ID, this.manifest)).get()
+        .asString(__ -> new ClassCastException());
+
+      cacheFile.ifPresent(this::store);
+    }
+  }
+
+  public Node getNode() {
+    return node;
+  }
+
+  public StorageReference getManifest() {
+    return manifest;
+  }
+
+  public TransactionReference getTakamakaCode() {
+    return takamakaCode;
+  }
+
+  public String getChainId() {
+    return chainId;
+  }
+
+  /**
+   * Yields the accounts of the session, in the order they were given.
+   *
+   * @return the accounts
+   */
+  public StorageReference[] getAccounts() {
+    return accounts.clone();
+  }
+
+  /**
+   * Yields the signers of the accounts of the session, in the same order as the accounts.
+   *
+   * @return the signers
+   */
+  public List<Signer<SignedTransactionRequest<?>>> getSigners() {
+    return new ArrayList<>(signers);
+  }
+
+  /**
+   * Yields the nonces of the accounts of the session, already fetched from the node.
+   *
+   * @return the manager of the nonces
+   */
+  public NonceManager getNonces() {
+    return nonces;
+  }
+
+  private static Optional<Properties> sameManifest(Optional<Properties> cached, StorageReference manifest) {
+    return cached.filter(properties -> manifest.toString().equals(properties.getProperty("manifest")));
+  }
+
+  private static List<Key> loadersOf(Node node, String keysDir, Map<StorageReference, String> passwords) {
+    var keys = new ArrayList<Key>();
+    passwords.forEach((account, password) -> keys.add(new Key(account, () ->
+      Accounts.of(account, keysDir).keys(password, SignatureHelpers.of(node).signatureAlgorithmFor(account)).getPrivate())));
+
+    return keys;
+  }
+
+  private static List<Key> loadersOf(Map<StorageReference, PrivateKey> privateKeys) {
+    var keys = new ArrayList<Key>();
+    privateKeys.forEach((account, key) -> keys.add(new Key(account, () -> key)));
+
+    return keys;
+  }
+
+  private static Optional<Properties> load(Path file) {
+    if (!Files.exists(file))
+      return Optional.empty();
+
+    try (var reader = Files.newBufferedReader(file)) {
+      var properties = new Properties();
+      properties.load(reader);
+      return Optional.of(properties);
+    }
+    catch (IOException e) {
+      LOGGER.log(Level.WARNING, "cannot read " + file, e);
+      return Optional.empty();
+    }
+  }
+
+  private void store(Path file) {
+    var properties = new Properties();
+    properties.setProperty("manifest", manifest.toString());
+    properties.setProperty("takamakaCode", takamakaCode.toString());
+    properties.setProperty("chainId", chainId);
+
+    try {
+      Files.createDirectories(file.getParent());
+      try (var writer = Files.newBufferedWriter(file)) {
+        properties.store(writer, "immutable data of a node");
+      }
+    }
+    catch (IOException e) {
+      // the cache is only an optimization
+      LOGGER.log(Level.WARNING, "cannot write " + file, e);
+    }
+  }
+}
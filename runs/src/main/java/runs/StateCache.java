@@ -0,0 +1,276 @@
+/*
+    A blockchain transactions example with Hotmoka.
+    Copyright (C) 2021 Fausto Spoto (fausto.spoto@gmail.com)
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package runs;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import io.hotmoka.node.NodeMarshallingContexts;
+import io.hotmoka.node.NodeUnmarshallingContexts;
+import io.hotmoka.node.Updates;
+import io.hotmoka.node.api.Node;
+import io.hotmoka.node.api.updates.ClassTag;
+import io.hotmoka.node.api.updates.Update;
+import io.hotmoka.node.api.values.StorageReference;
+
+/**
+ * A cache of the class tags of storage objects and of the state of the
+ * storage objects that never change, such as events and objects with only
+ * final fields. The class of an object never changes, hence class tags can be
+ * cached for every object. The cache keeps the most recently used entries in
+ * memory and, optionally, all entries in a directory, so that they
+ * survive across runs. Entries on disk are kept in a subdirectory for each
+ * node, named after its manifest, since the same storage reference can
+ * identify distinct objects in distinct nodes.
+ */
+public class StateCache {
+  private final static Logger LOGGER = Logger.getLogger(StateCache.class.getName());
+
+  private final Node node;
+
+  /**
+   * The directory of the disk tier for the node, or null if there is none.
+   */
+  private final Path dir;
+
+  private final Map<StorageReference, ClassTag> classTags;
+  private final Map<StorageReference, List<Update>> states;
+
+  private final AtomicLong memoryHits = new AtomicLong();
+  private final AtomicLong diskHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Creates a cache of the class tags and immutable state of the objects in the given node.
+   *
+   * @param node the node
+   * @param capacity the maximal number of class tags and of states kept in memory
+   * @param dir the directory where entries are kept on disk, for this and other nodes; this is optional
+   */
+  public StateCache(Node node, int capacity, Optional<Path> dir) throws Exception {
+    if (capacity <= 0)
+      throw new IllegalArgumentException("The capacity must be positive");
+
+    this.node = node;
+    this.classTags = lru(capacity);
+    this.states = lru(capacity);
+
+    if (dir.isPresent()) {
+      this.dir = dir.get().resolve(node.getManifest().toString().replace('#', '_'));
+      Files.createDirectories(this.dir);
+    }
+    else
+      this.dir = null;
+  }
+
+  /**
+   * Yields the class tag of the given object.
+   *
+   * @param object the object
+   * @return the class tag
+   */
+  public ClassTag getClassTag(StorageReference object) throws Exception {
+    ClassTag tag;
+    synchronized (classTags) {
+      tag = classTags.get(object);
+    }
+
+    if (tag != null) {
+      memoryHits.incrementAndGet();
+      return tag;
+    }
+
+    List<Update> fromDisk = read(object, "tag");
+    if (fromDisk != null && fromDisk.size() == 1 && fromDisk.get(0) instanceof ClassTag) {
+      diskHits.incrementAndGet();
+      tag = (ClassTag) fromDisk.get(0);
+    }
+    else {
+      misses.incrementAndGet();
+      tag = node.getClassTag(object);
+      write(object, "tag", List.of(tag));
+    }
+
+    synchronized (classTags) {
+      classTags.put(object, tag);
+    }
+
+    return tag;
+  }
+
+  /**
+   * Yields the state of the given object, including its class tag.
+   * This must only be used for objects whose fields are all final,
+   * since the state is never fetched again from the node.
+   *
+   * @param object the object
+   * @return the updates that describe the state of the object
+   */
+  public List<Update> getImmutableState(StorageReference object) throws Exception {
+    List<Update> state;
+    synchronized (states) {
+      state = states.get(object);
+    }
+
+    if (state != null) {
+      memoryHits.incrementAndGet();
+      return state;
+    }
+
+    state = read(object, "state");
+    if (state != null)
+      diskHits.incrementAndGet();
+    else {
+      misses.incrementAndGet();
+      state = node.getState(object).collect(Collectors.toUnmodifiableList());
+      write(object, "state", state);
+    }
+
+    synchronized (states) {
+      states.put(object, state);
+    }
+
+    return state;
+  }
+
+  /**
+   * Yields the number of lookups served from memory.
+   *
+   * @return the number of lookups
+   */
+  public long getMemoryHits() {
+    return memoryHits.get();
+  }
+
+  /**
+   * Yields the number of lookups served from disk.
+   *
+   * @return the number of lookups
+   */
+  public long getDiskHits() {
+    return diskHits.get();
+  }
+
+  /**
+   * Yields the number of lookups that had to query the node.
+   *
+   * @return the number of lookups
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  @Override
+  public String toString() {
+    return "state cache: " + memoryHits + " memory hits, " + diskHits + " disk hits, " + misses + " misses";
+  }
+
+  private static <V> Map<StorageReference, V> lru(int capacity) {
+    return new LinkedHashMap<>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<StorageReference, V> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  private Path fileOf(StorageReference object, String kind) {
+    return dir.resolve(object.toString().replace('#', '_') + "." + kind);
+  }
+
+  /**
+   * Reads the updates kept on disk for the given object.
+   *
+   * @return the updates, or null if they are not on disk
+   */
+  private List<Update> read(StorageReference object, String kind) {
+    if (dir == null)
+      return null;
+
+    Path file = fileOf(object, kind);
+    if (!Files.exists(file))
+      return null;
+
+    try (var context = NodeUnmarshallingContexts.of(Files.newInputStream(file))) {
+      int size = context.readCompactInt();
+      var updates = new ArrayList<Update>(size);
+      for (int i = 0; i < size; i++)
+        updates.add(Updates.from(context));
+
+      return List.copyOf(updates);
+    }
+    catch (IOException e) {
+      // a broken file is as if it were missing: it will be written again
+      LOGGER.log(Level.WARNING, "cannot read " + file, e);
+      return null;
+    }
+  }
+
+  /**
+   * Writes on disk the updates of the given object, if there is a disk tier.
+   * The file is first written aside and then moved in place, so that
+   * readers never see it half-written.
+   */
+  private void write(StorageReference object, String kind, List<Update> updates) {
+    if (dir == null)
+      return;
+
+    Path file = fileOf(object, kind);
+    Path temp = null;
+
+    try {
+      temp = Files.createTempFile(dir, null, ".tmp");
+
+      try (var context = NodeMarshallingContexts.of(Files.newOutputStream(temp))) {
+        context.writeCompactInt(updates.size());
+        for (var update: updates)
+          update.into(context);
+      }
+
+      Files.move(temp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+    catch (IOException e) {
+      // the disk tier is only an optimization
+      LOGGER.log(Level.WARNING, "cannot write " + file, e);
+
+      try {
+        if (temp != null)
+          Files.deleteIfExists(temp);
+      }
+      catch (IOException e2) {
+        LOGGER.log(Level.WARNING, "cannot delete " + temp, e2);
+      }
+    }
+  }
+}